@@ -1,16 +1,28 @@
 (ns slipstream.async.collector
+  (:require [clojure.string])
   (:require [slipstream.async.log :as log])
   (:require [slipstream.async.metric-updator :as updator])
   (:import [com.sixsq.slipstream.connector Collector])
   (:import [com.sixsq.slipstream.connector Connector])
+  (:import [com.sixsq.slipstream.connector ConnectorExecutors])
+  (:import [com.sixsq.slipstream.connector ConnectorFuture])
   (:import [com.sixsq.slipstream.connector ConnectorFactory])
   (:import [com.sixsq.slipstream.persistence User])
-  (:require [clojure.core.async :as async :refer [go timeout thread chan sliding-buffer <! >! <!!]])
+  (:import [com.sixsq.slipstream.persistence Run])
+  (:import [com.sixsq.slipstream.metrics Metrics])
+  (:import [java.util.concurrent ThreadPoolExecutor ExecutionException RejectedExecutionException])
+  (:require [clojure.core.async :as async :refer [go timeout thread chan <! <!! >!! alts! put!]])
   (:gen-class
     :name slipstream.async.Collector
     :methods [#^{:static true 
                  :doc "Takes: run user"}
-                [start [] void]]))
+                [start [] void]
+              #^{:static true
+                 :doc "Returns the statistics of the read pools running the collections, per connector"}
+                [stats [] java.util.Map]
+              #^{:static true
+                 :doc "Returns the collection scheduler statistics, including its lag"}
+                [schedulerStats [] java.util.Map]]))
 
 (defn seconds-in-msecs
   [seconds]
@@ -18,11 +30,19 @@
 
 (def collector-chan-size 512)
 (def number-of-readers 32)
-(def timeout-all-users-loop (seconds-in-msecs 240))
-(def timeout-online-loop (seconds-in-msecs 10))
 (def timeout-collect (seconds-in-msecs 15))
 (def timeout-processing-loop (seconds-in-msecs 60))
 
+; Scheduler: each (user, cloud) pair has its own next due time. Pairs with
+; active runs or recent vm changes are polled every fast-interval, others
+; back off exponentially up to their maximum interval.
+(def scheduler-tick (seconds-in-msecs 5))
+(def fast-interval (seconds-in-msecs 10))
+(def online-max-interval (seconds-in-msecs 60))
+(def idle-max-interval (seconds-in-msecs 240))
+(def recent-change-window (seconds-in-msecs 300))
+(def snapshot-interval (seconds-in-msecs 60))
+
 (defn get-value
   [entry]
   (.getValue entry))
@@ -39,47 +59,235 @@
   [user]
   (true? (.isOnline user)))
 
-(defn online-users
-  []
-  (filter online? (users)))
-
 (defn get-name
   [user]
   (.getName user))
 
-; This is the channel for queuing the online user requests
-(def online-collector-chan (chan (sliding-buffer collector-chan-size)))
+; This is the channel for queuing all collect requests. The buffer is fixed:
+; when full the scheduler blocks instead of dropping requests.
+(def collector-chan (chan collector-chan-size))
+
+; Collection calls the cloud (often forking a CLI) and writes to the database,
+; so it must not run on the core.async dispatch pool. Both run on the bounded
+; read pool of the connector (see ConnectorExecutors), apart from its launches
+; and terminations; go blocks only start the collection and wait on a channel
+; for its outcome.
+
+(defn executors
+  []
+  (ConnectorExecutors/getReadExecutors))
+
+; Map of connector instance name -> number of rejected (queue full) requests
+(def rejected (atom {}))
+
+(defn- metric-name
+  [name connector-name]
+  (str name "{connector=\"" connector-name "\"}"))
+
+(defn executor-stats
+  [connector-name ^ThreadPoolExecutor ex]
+  {"pool-size" (.getMaximumPoolSize ex)
+   "queued" (.size (.getQueue ex))
+   "in-flight" (.getActiveCount ex)
+   "completed" (.getCompletedTaskCount ex)
+   "rejected" (get @rejected connector-name 0)})
+
+(defn stats
+  []
+  (into {} (for [[connector-name ex] (executors)]
+             [connector-name (executor-stats connector-name ex)])))
+
+(defn log-stats
+  []
+  (doseq [[connector-name s] (stats)]
+    (log/log-info "Read pool for cloud " connector-name ": "
+                  (s "in-flight") " in flight, "
+                  (s "queued") " queued, "
+                  (s "rejected") " rejected")))
+
+(defn- user-names
+  [users]
+  (clojure.string/join ", " (map get-name users)))
+
+;
+; Scheduling
+;
+
+(defn- now
+  []
+  (System/currentTimeMillis))
+
+; Map of [user-name connector-name] ->
+;   {:due :interval :collected :last-change :active :online :pending}
+(def schedule (atom {}))
+
+; Time between the due time of a request and its processing by a reader
+(def lag (atom {:last 0 :max 0}))
+
+(defn hot?
+  [{:keys [active last-change]} t]
+  (boolean (or active
+               (and last-change (< (- t last-change) recent-change-window)))))
+
+(defn next-interval
+  [entry t]
+  (if (hot? entry t)
+    fast-interval
+    (min (* 2 (get entry :interval fast-interval))
+         (if (:online entry) online-max-interval idle-max-interval))))
+
+(defn- collected
+  [entry changes t]
+  (let [entry (assoc entry :pending false :collected t)
+        entry (if (pos? changes) (assoc entry :last-change t) entry)
+        interval (next-interval entry t)]
+    (assoc entry :interval interval :due (+ t interval))))
+
+(defn- update-entries!
+  [users connector-name f]
+  (swap! schedule
+         (fn [s]
+           (reduce (fn [s user]
+                     (let [k [(get-name user) connector-name]]
+                       (if-let [entry (get s k)]
+                         (assoc s k (f entry))
+                         s)))
+                   s users))))
+
+(defn reschedule!
+  "Computes the next due time of the users on the cloud, once collected."
+  [users connector-name changes]
+  (let [t (now)]
+    (update-entries! users connector-name #(collected % changes t))))
+
+(defn retry-later!
+  [users connector-name]
+  (let [t (now)]
+    (update-entries! users connector-name
+                     #(assoc % :pending false :due (+ t fast-interval)))))
+
+(defn- refresh-entry
+  [entry active? online? t]
+  (let [entry (assoc entry :active active? :online online?)]
+    (if (and (hot? entry t) (not (:pending entry)))
+      ; a user becoming active must not wait for its idle back-off
+      (assoc entry :due (min (:due entry) (+ (get entry :collected t) fast-interval)))
+      entry)))
+
+(defn refresh-schedule!
+  "Adds new (user, cloud) pairs, drops the ones that no longer exist and
+  updates the activity of the others."
+  [users connector-names active-users t]
+  (swap! schedule
+         (fn [s]
+           (into {}
+                 (for [user users
+                       connector-name connector-names
+                       :let [k [(get-name user) connector-name]
+                             entry (get s k {:due t :interval fast-interval})]]
+                   [k (refresh-entry entry
+                                     (contains? active-users (get-name user))
+                                     (online? user)
+                                     t)])))))
 
-; This is the channel for queuing all user requests
-(def all-collector-chan (chan (sliding-buffer collector-chan-size)))
+(defn take-due!
+  "Marks as pending and returns the (user, cloud) pairs that are due."
+  [t]
+  (let [due (vec (for [[k entry] @schedule
+                       :when (and (not (:pending entry)) (<= (:due entry) t))]
+                   [k (:due entry)]))]
+    (swap! schedule
+           (fn [s]
+             (reduce (fn [s [k _]] (assoc-in s [k :pending] true)) s due)))
+    due))
+
+(defn scheduler-stats
+  []
+  (let [t (now)
+        entries (vals @schedule)
+        pending (filter :pending entries)
+        overdue (filter #(and (not (:pending %)) (< (:due %) (- t scheduler-tick))) entries)]
+    {"scheduled" (count entries)
+     "hot" (count (filter #(hot? % t) entries))
+     "pending" (count pending)
+     "overdue" (count overdue)
+     "oldest-pending-ms" (if (empty? pending) 0 (- t (apply min (map :due pending))))
+     "lag-last-ms" (:last @lag)
+     "lag-max-ms" (:max @lag)}))
+
+(defn- record-lag!
+  [due]
+  (let [l (max 0 (- (now) due))]
+    (swap! lag (fn [{m :max}] {:last l :max (max m l)}))
+    (Metrics/record "collect_lag_ms" l)))
+
+(defn- update-scheduler-gauges
+  []
+  (let [s (scheduler-stats)]
+    (Metrics/setGauge "collect_scheduled" (s "scheduled"))
+    (Metrics/setGauge "collect_pending" (s "pending"))
+    (Metrics/setGauge "collect_overdue" (s "overdue"))
+    (Metrics/setGauge "collect_oldest_pending_ms" (s "oldest-pending-ms"))))
+
+;
+; Collection
+;
+
+(defn- rejected!
+  [connector-name]
+  (swap! rejected update-in [connector-name] (fnil inc 0))
+  (Metrics/increment (metric-name "collect_rejected" connector-name))
+  (log/log-error "Read pool for cloud " connector-name " is full. Retrying the collect request later."))
+
+(defn- collected!
+  "Updates the metrics of the users once their vms are stored. Runs on the
+  worker pool of the connector, where the collection completes."
+  [users connector-name ^ConnectorFuture future begin ch]
+  (let [changes (atom 0)]
+    (try
+      (reset! changes (.get future))
+      (Metrics/record (metric-name "collect_duration_ms" connector-name) (- (now) begin))
+      (doseq [user users]
+        (let [begin (now)]
+          (updator/update user)
+          (Metrics/record "metrics_update_duration_ms" (- (now) begin))))
+      (reschedule! users connector-name @changes)
+      (put! ch true)
+      (catch ExecutionException e
+        (if (instance? RejectedExecutionException (.getCause e))
+          (do
+            (rejected! connector-name)
+            (retry-later! users connector-name))
+          (do
+            (log/log-warn "caught exception executing collect request: " (.getMessage (.getCause e)))
+            (reschedule! users connector-name @changes)))
+        (put! ch :failed))
+      (catch Exception e
+        (log/log-warn "caught exception executing collect request: " (.getMessage e))
+        (reschedule! users connector-name @changes)
+        (put! ch :failed)))))
 
 (defn collect!
-  [user connector]
-  (let [ch (chan 1)]
-    (go
-      (let [[v c] (alts! [ch (timeout timeout-collect)])]
-        (if (nil? v)
-          (log/log-error
-            "Timeout collecting vms for user "
-            (.getName user)
-            " on cloud "
-            (.getConnectorInstanceName connector))
-          (log/log-info (str "executed collect request for " (.getName user) " and " (.getConnectorInstanceName connector))))))
-    (go (>! ch (Collector/collect user connector)))))
-
-(defn update-metric!
-  [user]
-  (let [ch (chan 1)]
+  "Collects the vms of a group of users sharing the same cloud credentials,
+  calling the cloud only once for the whole group. No thread waits for the
+  cloud: the collection reports its outcome through a listener."
+  [users connector]
+  (let [connector-name (.getConnectorInstanceName connector)
+        begin (now)
+        ch (chan 1)
+        future (Collector/collectAsync users connector)]
+    (.addListener future #(collected! users connector-name future begin ch))
     (go
       (let [[v c] (alts! [ch (timeout timeout-collect)])]
-        (if (nil? v)
-          (log/log-error
-            "Timeout updating metrics for user "
-            (.getName user))
-          (log/log-info (str "executed update-metric request for " (.getName user))))))
-    (go (>! ch (updator/update user)))))
-
-(def not-nil? (complement nil?))
+        (cond
+          (nil? v) (do
+                     (Metrics/increment (metric-name "collect_timeouts" connector-name))
+                     (log/log-error
+                       "Timeout collecting vms for users "
+                       (user-names users)
+                       " on cloud "
+                       connector-name))
+          (true? v) (log/log-info (str "executed collect and update-metric request for " (user-names users) " and " connector-name)))))))
 
 ; Start collector readers
 (defn collect-readers
@@ -88,50 +296,101 @@
   (doseq [i (range number-of-readers)]
     (go
       (while true
-        (let [[[user connector] ch] (alts! [chan (timeout timeout-processing-loop)])]
-          (if (nil? user)
+        (let [[[users connector due] ch] (alts! [chan (timeout timeout-processing-loop)])]
+          (if (nil? users)
             (log/log-info "Collect reader " i " loop idle. Looping...")
             (try
-              (log/log-info (str "executing collect request for " (.getName user) " and " (.getConnectorInstanceName connector)))
-              (collect! user connector)
-              (update-metric! user)
-              (catch Exception e (log/log-warn "caught exception executing collect request: " (.getMessage e))))))))))
+              (record-lag! due)
+              (log/log-info (str "executing collect request for " (user-names users) " and " (.getConnectorInstanceName connector)))
+              (collect! users connector)
+              (catch Exception e
+                (log/log-warn "caught exception executing collect request: " (.getMessage e))
+                (retry-later! users (.getConnectorInstanceName connector))))))))))
+
+(defonce ^:dynamic *collect-processor* (collect-readers collector-chan))
 
-(defonce ^:dynamic *online-collect-processor* (collect-readers online-collector-chan))
-(defonce ^:dynamic *all-collect-processor* (collect-readers all-collector-chan))
+(defn active-users
+  []
+  (set (Run/listUsersWithActiveRuns)))
 
-(defn check-channel-size
-  [users connectors]
-  (let [users-count (count users)
-        connectors-count (count connectors)]
-    (when (> (* users-count connectors-count) collector-chan-size)
-      (log/log-error (str "The number of users x connectors: " users-count " x " connectors-count " exceeds the channel size: " collector-chan-size)))))
+; Users, connectors and active runs are only reloaded every snapshot-interval:
+; the scheduler tick itself only takes the due pairs.
+(def snapshot (atom nil))
+
+(defn- stale-snapshot?
+  [t]
+  (let [{:keys [taken]} @snapshot]
+    (or (nil? taken) (>= (- t taken) snapshot-interval))))
+
+(defn refresh-snapshot!
+  [users connectors t]
+  (let [connectors-by-name (into {} (map (juxt #(.getConnectorInstanceName %) identity) connectors))]
+    (refresh-schedule! users (keys connectors-by-name) (active-users) t)
+    (reset! snapshot {:taken t
+                      :users-by-name (into {} (map (juxt get-name identity) users))
+                      :connectors-by-name connectors-by-name})))
+
+(defn- enqueue!
+  [connector due-users oldest]
+  (doseq [group (Collector/groupByCredentials due-users connector)]
+    ; blocking put: when the readers can't keep up, the scheduler waits
+    ; (and the lag grows) instead of dropping requests
+    (>!! collector-chan [(vec group) connector oldest])))
 
 (defn insert-collection-requests
-  [users chan]
-  (let [connectors (connectors)]
-    (check-channel-size users connectors)
-    (doseq [u users
-            c connectors]
-      (go 
-        (>! chan [u c])))))
-
-; Start collector writers
-(defn collect-writers
+  [t]
+  (when (stale-snapshot? t)
+    (refresh-snapshot! (users) (connectors) t))
+  (let [{:keys [users-by-name connectors-by-name]} @snapshot]
+    (doseq [[connector-name due] (group-by (comp second first) (take-due! t))
+            :let [connector (connectors-by-name connector-name)
+                  due-users (keep (comp users-by-name first first) due)
+                  oldest (apply min (map second due))]]
+      (try
+        (enqueue! connector due-users oldest)
+        (catch Exception e
+          (log/log-error "caught exception scheduling collect requests for cloud "
+                         connector-name ": " (.getMessage e))
+          (retry-later! due-users connector-name))))))
+
+; Start collector scheduler
+(defn collect-scheduler
+  []
+  (thread
+    (while true
+      (try
+        (insert-collection-requests (now))
+        (update-scheduler-gauges)
+        (catch Exception e
+          (log/log-error "caught exception scheduling collect requests: " (.getMessage e))))
+      (<!! (timeout scheduler-tick)))))
+
+(defn log-scheduler-stats
+  []
+  (let [s (scheduler-stats)]
+    (log/log-info "Collector scheduler: " (s "scheduled") " scheduled, "
+                  (s "hot") " hot, "
+                  (s "pending") " pending, "
+                  (s "overdue") " overdue, lag "
+                  (s "lag-last-ms") " ms (max " (s "lag-max-ms") " ms)")))
+
+(defn collect-stats-logger
   []
   (go
-	  (while true
-	    (<! (timeout timeout-online-loop))
-	    (let [users (online-users)]
-	      (log/log-info "inserting online users requests")
-	      (insert-collection-requests users online-collector-chan))))
-  (go
-	  (while true
-	    (<! (timeout timeout-all-users-loop))
-	    (let [users (users)]
-	      (log/log-info "inserting all users requests")
-	      (insert-collection-requests users all-collector-chan)))))
+    (while true
+      (<! (timeout timeout-processing-loop))
+      (log-stats)
+      (log-scheduler-stats))))
 
 (defn -start
   []
-  (collect-writers))
+  (collect-scheduler)
+  (collect-stats-logger))
+
+(defn -stats
+  []
+  (stats))
+
+(defn -schedulerStats
+  []
+  (scheduler-stats))
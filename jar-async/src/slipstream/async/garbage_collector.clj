@@ -1,8 +1,9 @@
 (ns slipstream.async.garbage-collector
-  (:require [clojure.core.async :as async :refer [go timeout thread chan sliding-buffer <! >! <!!]])
+  (:require [clojure.core.async :as async :refer [go timeout thread chan sliding-buffer <! >! <!! alts!]])
   (:require [slipstream.async.log :as log])
   (:require [slipstream.async.metric-updator :as updator])
   (:import [com.sixsq.slipstream.persistence Run])
+  (:import [com.sixsq.slipstream.metrics Metrics])
   (:gen-class
     :name slipstream.async.GarbageCollector
     :methods [#^{:static true}
@@ -14,27 +15,41 @@
 
 (def collector-chan-size 4)
 (def number-of-readers 2)
-(def timeout-collect (seconds-in-msecs 5))
+(def timeout-collect (seconds-in-msecs 300))
 (def timeout-processing-loop (seconds-in-msecs 600))
 
 (defn purge
+  "Purges all the stale runs, returning [number-of-purged elapsed-msecs]"
   []
-  (Run/purge))
+  (let [begin (System/currentTimeMillis)
+        purged (Run/purge)]
+    [purged (- (System/currentTimeMillis) begin)]))
+
+(defn- throughput
+  [purged msecs]
+  (if (pos? msecs)
+    (long (/ (* 1000 purged) msecs))
+    purged))
 
 ; This is the channel for queuing all collect requests
 (def collector-chan (chan (sliding-buffer collector-chan-size)))
 
 (defn collect!
   []
-  (let [ch (chan 1)]
+  (let [ch (thread (purge))]
     (go
-      (let [[no-of-purged c] (alts! [ch (timeout timeout-collect)])]
+      (let [[[no-of-purged msecs] c] (alts! [ch (timeout timeout-collect)])]
         (if (nil? no-of-purged)
-          (log/log-error
-            "Timeout garbage collecting runs")
-          (log/log-info
-            (str "Purged " no-of-purged " runs")))))
-    (go (>! ch (purge)))))
+          (do
+            (Metrics/increment "purge_timeouts")
+            (log/log-error
+              "Timeout garbage collecting runs"))
+          (do
+            (Metrics/increment "purge_runs" no-of-purged)
+            (Metrics/record "purge_duration_ms" msecs)
+            (log/log-info
+              (str "Purged " no-of-purged " runs in " msecs " ms ("
+                   (throughput no-of-purged msecs) " runs/s)"))))))))
 
 (def not-nil? (complement nil?))
 
@@ -1,22 +1,33 @@
 (ns slipstream.async.launcher
   (:require [slipstream.async.log :as log])
   (:import [com.sixsq.slipstream.connector Launcher])
+  (:import [com.sixsq.slipstream.connector ConnectorFuture])
   (:import [com.sixsq.slipstream.persistence Run])
   (:import [com.sixsq.slipstream.persistence User])
+  (:import [com.sixsq.slipstream.configuration Configuration])
+  (:import [com.sixsq.slipstream.util Cancellation])
+  (:import [com.sixsq.slipstream.metrics Metrics])
   (:import [com.sixsq.slipstream.util Logger])
-  (:require [clojure.core.async :as async :refer [go timeout thread chan <! >! <!!]])
+  (:require [clojure.core.async :as async :refer [go timeout thread chan close! <! >! <!! alts! put!]])
   (:gen-class
     :name slipstream.async.Launcher
     :methods [#^{:static true 
-                 :doc "Takes: run user"}
+                 :doc "Takes: run user. Returns false if the launch queue is full"}
                 [launch [com.sixsq.slipstream.persistence.Run
-                         com.sixsq.slipstream.persistence.User] void]]))
+                         com.sixsq.slipstream.persistence.User] boolean]
+              #^{:static true
+                 :doc "Returns true if the launch queue can accept a new request"}
+                [isAccepting [] boolean]
+              #^{:static true
+                 :doc "Returns the launcher counters and queue depth"}
+                [stats [] java.util.Map]]))
 
 (defn minutes-in-msecs
   [minutes]
   (* 1000 60 minutes))
 
-(def launcher-chan-size 64)
+(def default-launcher-chan-size 64)
+(def launcher-chan-size-key "slipstream.launcher.queue.size")
 (def number-of-readers 64)
 (def timeout-processing-loop (minutes-in-msecs 1))
 (def timeout-launch (minutes-in-msecs 1))
@@ -24,48 +35,144 @@
 (def errors (atom 0))
 (def requested (atom 0))
 (def completed (atom 0))
+(def rejected (atom 0))
 
-; This is the channel for queuing all launch requests
-(def launcher-chan (chan launcher-chan-size))
+; Number of requests in the launch queue, not yet taken by a reader
+(def queued (atom 0))
 
-; Insert launch request
+; Number of launches taken by a reader and not yet completed (or timed out)
+(def in-flight (atom 0))
+
+(add-watch queued :metrics (fn [_ _ _ n] (Metrics/setGauge "launch_queue_depth" n)))
+(add-watch in-flight :metrics (fn [_ _ _ n] (Metrics/setGauge "launch_in_flight" n)))
+
+(defn- since
+  [begin]
+  (- (System/currentTimeMillis) begin))
+
+(defn- launcher-chan-size
+  []
+  (try
+    (max 1 (Integer/parseInt
+             (.trim (.getProperty (Configuration/getInstance)
+                                  launcher-chan-size-key
+                                  (str default-launcher-chan-size)))))
+    (catch Exception e default-launcher-chan-size)))
+
+(def capacity (launcher-chan-size))
+
+; This is the channel for queuing all launch requests. Admission is checked
+; against the queued counter, so puts on this channel never park.
+(def launcher-chan (chan capacity))
+
+(defn- try-reserve!
+  []
+  (let [reserved (atom false)]
+    (swap! queued (fn [n]
+                    (reset! reserved (< n capacity))
+                    (if @reserved (inc n) n)))
+    @reserved))
+
+(defn accepting?
+  []
+  (< @queued capacity))
+
+; Insert launch request. Returns false, without queuing, when the queue is full.
 (defn >launch
   [run user]
   (swap! requested inc)
-  (go (>! launcher-chan [run user])))
+  (Metrics/increment "launch_requested")
+  (if (try-reserve!)
+    (do
+      (put! launcher-chan [run user (System/currentTimeMillis)])
+      true)
+    (do
+      (swap! rejected inc)
+      (Metrics/increment "launch_rejected")
+      (log/log-warn "Launch queue full (" capacity "), rejecting run " (.getUuid run))
+      false)))
+
+(defn- completion
+  "Returns a channel closed once the future completes, without a thread
+  waiting for it."
+  [^ConnectorFuture future]
+  (let [ch (chan)]
+    (if future
+      (.addListener future #(close! ch))
+      (close! ch))
+    ch))
 
 (defn launch!
+  "Launches the run. Only its preparation, which writes to the database, runs
+  on a separate thread: the connectors call the clouds on their own worker
+  pools and report through a listener. Returns a channel closed once the
+  launch completed or timed out. On timeout the launch is cancelled, which
+  destroys the processes it forked and frees their threads."
   [run user]
-  (let [ch (chan)]
+  (let [begin (System/currentTimeMillis)
+        cancellation (Cancellation.)
+        started (thread (Launcher/launchAsync run user cancellation))
+        deadline (timeout timeout-launch)]
+    (swap! in-flight inc)
     (go
-      (let [[v c] (alts! [ch (timeout timeout-launch)])]
-        (if (nil? v)
+      (let [[future c] (alts! [started deadline])
+            [_ c] (if (= c deadline)
+                    [nil c]
+                    (alts! [(completion future) deadline]))]
+        (swap! in-flight dec)
+        (if (and (= c deadline) (.cancel cancellation))
           (do
-            (log/log-error "Oops... timeout")
+            (log/log-error "Timeout launching run " (.getUuid run) ", cancelled")
             (swap! errors inc)
+            (Metrics/increment "launch_timeouts")
             (Run/abort "Timeout launching run" (.getUuid run)))
           (do
             (log/log-info "Launched!")
-            (swap! completed inc)))))
-    (go (>! ch (Launcher/launch run user)))))
+            (swap! completed inc)
+            (Metrics/increment "launch_completed")
+            (Metrics/record "launch_duration_ms" (since begin))))))))
 
-; Start launch readers
+; Start launch readers. Each reader parks until its launch completes, such that
+; the number of concurrent launches is bounded by the number of readers.
 (defn launch-readers
   []
   (log/log-info "Starting " number-of-readers " readers...")
   (doseq [i (range number-of-readers)]
     (go
       (while true
-        (let [[[run user] ch] (alts! [launcher-chan (timeout timeout-processing-loop)])]
+        (let [[[run user queued-at] ch] (alts! [launcher-chan (timeout timeout-processing-loop)])]
           (if (nil? run)
             (log/log-info "Launch reader " i " loop idle. Looping...")
-            (try
-              (launch! run user)
-              (catch Exception e (log/log-error "caught exception: " (.getMessage e))))))))))
+            (do
+              (swap! queued dec)
+              (Metrics/record "launch_queue_wait_ms" (since queued-at))
+              (let [done (try
+                           (launch! run user)
+                           (catch Exception e (log/log-error "caught exception: " (.getMessage e))))]
+                (when done
+                  (<! done))))))))))
 
 (defonce ^:dynamic *launch-processor* (launch-readers))
 
+(defn stats
+  []
+  {"capacity" capacity
+   "queued" @queued
+   "in-flight" @in-flight
+   "requested" @requested
+   "completed" @completed
+   "rejected" @rejected
+   "errors" @errors})
+
 (defn -launch
   "Launch asyncronously all required VMs for the run"
   [run user]
   (>launch run user))
+
+(defn -isAccepting
+  []
+  (accepting?))
+
+(defn -stats
+  []
+  (stats))
@@ -33,6 +33,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.persistence.NoResultException;
 
@@ -107,6 +108,11 @@ public class Configuration {
 
 	private ServiceConfiguration serviceConfiguration = new ServiceConfiguration();
 
+	/**
+	 * Incremented each time the parameters are reset or updated.
+	 */
+	private final AtomicInteger revision = new AtomicInteger();
+
 	private Reference baseRef;
 
 	private int defaultPort = 80;
@@ -488,6 +494,14 @@ public class Configuration {
 		return serviceConfiguration;
 	}
 
+	/**
+	 * Changes each time the parameters are reset or updated, such that
+	 * values derived from them can be cached until then.
+	 */
+	public int getRevision() {
+		return revision.get();
+	}
+
 	/**
 	 * Retrieve the configuration value associated with the given key. Will
 	 * return null if the key does not exist.
@@ -704,6 +718,7 @@ public class Configuration {
 		postProcessParameters();
 		validateRequiredParameters();
 		resetRequiredParameterDefinition();
+		revision.incrementAndGet();
 	}
 
 	/**
@@ -724,6 +739,7 @@ public class Configuration {
 		postProcessParameters();
 		validateRequiredParameters();
 		resetRequiredParameterDefinition();
+		revision.incrementAndGet();
 	}
 
 	private void validateRequiredParameters() {
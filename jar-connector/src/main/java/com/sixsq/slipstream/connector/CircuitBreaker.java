@@ -0,0 +1,224 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.exceptions.CircuitOpenException;
+import com.sixsq.slipstream.metrics.Metrics;
+
+/**
+ * Circuit breaker of the calls to a cloud (launch, describe, terminate),
+ * per connector instance.
+ *
+ * After a number of consecutive failures the circuit opens, and calls fail
+ * immediately with a {@link CircuitOpenException} instead of waiting for the
+ * cloud to time out. Once the open duration has elapsed, a limited number of
+ * probe calls are let through (half-open): a successful probe closes the
+ * circuit, a failed one opens it again.
+ *
+ * Validation errors (e.g. missing credentials) are the user's, not the
+ * cloud's: they count neither as failures nor as successes, and only give
+ * back their half-open probe slot.
+ *
+ * Unit test:
+ *
+ * @see CircuitBreakerTest
+ */
+public class CircuitBreaker {
+
+	private static Logger logger = Logger.getLogger(CircuitBreaker.class
+			.getName());
+
+	public static final String FAILURE_THRESHOLD_KEY = "slipstream.circuit.failure.threshold";
+	public static final String OPEN_SECONDS_KEY = "slipstream.circuit.open.seconds";
+	public static final String HALF_OPEN_PROBES_KEY = "slipstream.circuit.halfopen.probes";
+
+	private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	private static final int DEFAULT_OPEN_SECONDS = 60;
+	private static final int DEFAULT_HALF_OPEN_PROBES = 1;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openMsecs;
+	private final int halfOpenProbes;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0;
+	private int probes = 0;
+
+	CircuitBreaker(String name, int failureThreshold, long openMsecs,
+			int halfOpenProbes) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openMsecs = openMsecs;
+		this.halfOpenProbes = halfOpenProbes;
+	}
+
+	public static CircuitBreaker forConnector(String connectorInstanceName) {
+		CircuitBreaker breaker = breakers.get(connectorInstanceName);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(connectorInstanceName, getIntProperty(
+					FAILURE_THRESHOLD_KEY, DEFAULT_FAILURE_THRESHOLD),
+					getIntProperty(OPEN_SECONDS_KEY, DEFAULT_OPEN_SECONDS) * 1000L,
+					getIntProperty(HALF_OPEN_PROBES_KEY,
+							DEFAULT_HALF_OPEN_PROBES));
+			CircuitBreaker existing = breakers.putIfAbsent(
+					connectorInstanceName, breaker);
+			if (existing != null) {
+				breaker = existing;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Fails with a {@link CircuitOpenException} if the circuit is open. Each
+	 * successful acquire must be followed by {@link #onSuccess()},
+	 * {@link #onFailure()} or {@link #release()}.
+	 */
+	public synchronized void acquire() throws CircuitOpenException {
+		if (state == State.OPEN
+				&& System.currentTimeMillis() - openedAt >= openMsecs) {
+			setState(State.HALF_OPEN);
+			probes = 0;
+		}
+		if (state == State.OPEN
+				|| (state == State.HALF_OPEN && probes >= halfOpenProbes)) {
+			throw rejected();
+		}
+		if (state == State.HALF_OPEN) {
+			probes++;
+		}
+	}
+
+	/**
+	 * Fails with a {@link CircuitOpenException} if {@link #acquire()} would,
+	 * but without taking a probe slot, such that callers can fail fast
+	 * before queueing for the call.
+	 */
+	public synchronized void check() throws CircuitOpenException {
+		boolean open = state == State.OPEN
+				&& System.currentTimeMillis() - openedAt < openMsecs;
+		if (open || (state == State.HALF_OPEN && probes >= halfOpenProbes)) {
+			throw rejected();
+		}
+	}
+
+	private CircuitOpenException rejected() {
+		Metrics.increment(metric("circuit_rejected"));
+		return new CircuitOpenException("Cloud " + name
+				+ " is currently unavailable, retry in "
+				+ Math.max(1, getRetryAfterSeconds()) + " seconds");
+	}
+
+	public synchronized void onSuccess() {
+		failures = 0;
+		if (state != State.CLOSED) {
+			logger.info("Closing circuit of cloud " + name);
+			setState(State.CLOSED);
+		}
+	}
+
+	/**
+	 * Ends a call without recording its outcome (e.g. it failed on the
+	 * user's input), giving back its probe slot if half-open.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && probes > 0) {
+			probes--;
+		}
+	}
+
+	public synchronized void onFailure() {
+		failures++;
+		if (state == State.HALF_OPEN
+				|| (state == State.CLOSED && failures >= failureThreshold)) {
+			logger.warning("Opening circuit of cloud " + name + " after "
+					+ failures + " consecutive failures");
+			openedAt = System.currentTimeMillis();
+			setState(State.OPEN);
+			Metrics.increment(metric("circuit_opened"));
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of seconds before probes are let through, 0 if the
+	 * circuit isn't open.
+	 */
+	public synchronized long getRetryAfterSeconds() {
+		if (state != State.OPEN) {
+			return 0;
+		}
+		long remaining = openMsecs - (System.currentTimeMillis() - openedAt);
+		return Math.max(0, (remaining + 999) / 1000);
+	}
+
+	/**
+	 * Returns the state of the circuit of the connector instance, CLOSED if
+	 * no call went through it yet.
+	 */
+	public static State getState(String connectorInstanceName) {
+		CircuitBreaker breaker = breakers.get(connectorInstanceName);
+		return breaker == null ? State.CLOSED : breaker.getState();
+	}
+
+	private void setState(State state) {
+		this.state = state;
+		Metrics.setGauge(metric("circuit_state"), state.ordinal());
+	}
+
+	private String metric(String metric) {
+		return metric + "{connector=\"" + name + "\"}";
+	}
+
+	static void reset() {
+		breakers.clear();
+	}
+
+	static void install(CircuitBreaker breaker) {
+		breakers.put(breaker.name, breaker);
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		try {
+			return Math.max(1, Integer.parseInt(Configuration.getInstance()
+					.getProperty(key, String.valueOf(defaultValue)).trim()));
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Invocation of a connector CLI tool: the tool name, its arguments and the
+ * credentials, kept apart from the arguments. It is run either by forking
+ * the tool (see {@link #toArgv(String)}), without going through a shell, or
+ * as a structured request to a {@link WorkerPool} worker, which can call the
+ * client library in-process and keep the credentials out of any command
+ * line.
+ */
+public class CliCommand {
+
+	private final String tool;
+	private final List<String> args = new ArrayList<String>();
+	private final Map<String, String> credentials = new LinkedHashMap<String, String>();
+
+	/**
+	 * @param tool
+	 *            name of the tool, relative to the CLI location (e.g.
+	 *            <code>openstack-describe-instances</code>)
+	 */
+	public CliCommand(String tool) {
+		this.tool = tool;
+	}
+
+	/**
+	 * Appends the values as separate arguments, passed as is.
+	 */
+	public CliCommand arg(String... values) {
+		for (String value : values) {
+			args.add(value == null ? "" : value);
+		}
+		return this;
+	}
+
+	public CliCommand option(String name, String value) {
+		return arg(name, value);
+	}
+
+	/**
+	 * Adds a credential, passed to the forked tool as the option
+	 * <code>name value</code>, ahead of the arguments.
+	 */
+	public CliCommand credential(String name, String value) {
+		credentials.put(name, value == null ? "" : value);
+		return this;
+	}
+
+	public String getTool() {
+		return tool;
+	}
+
+	public List<String> getArgs() {
+		return Collections.unmodifiableList(args);
+	}
+
+	public Map<String, String> getCredentials() {
+		return Collections.unmodifiableMap(credentials);
+	}
+
+	/**
+	 * Command line running the tool from the CLI location, with the
+	 * credentials as options.
+	 */
+	public String[] toArgv(String cliLocation) {
+		List<String> argv = new ArrayList<String>();
+		argv.add(cliLocation == null ? tool : cliLocation + "/" + tool);
+		for (Map.Entry<String, String> credential : credentials.entrySet()) {
+			argv.add(credential.getKey());
+			argv.add(credential.getValue());
+		}
+		argv.addAll(args);
+		return argv.toArray(new String[argv.size()]);
+	}
+
+	/**
+	 * Tool and arguments, with the credentials masked.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(tool);
+		for (String name : credentials.keySet()) {
+			sb.append(" ").append(name).append(" ***");
+		}
+		for (String arg : args) {
+			sb.append(" ").append(arg);
+		}
+		return sb.toString();
+	}
+
+}
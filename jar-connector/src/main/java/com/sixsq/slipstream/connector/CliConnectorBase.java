@@ -1,21 +1,47 @@
 package com.sixsq.slipstream.connector;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
+import com.sixsq.slipstream.configuration.Configuration;
 import com.sixsq.slipstream.credentials.Credentials;
 import com.sixsq.slipstream.exceptions.SlipStreamClientException;
 import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.exceptions.SlipStreamRuntimeException;
 import com.sixsq.slipstream.exceptions.ValidationException;
 import com.sixsq.slipstream.persistence.Run;
 import com.sixsq.slipstream.persistence.User;
+import com.sixsq.slipstream.util.ProcessUtils;
 
 public abstract class CliConnectorBase extends ConnectorBase {
 
 	public static final String CLI_LOCATION = "/usr/bin";
 
+	public static final String TERMINATE_BATCH_SIZE_KEY = "terminate.batch.size";
+	public static final String TERMINATE_PARALLELISM_KEY = "slipstream.connector.terminate.parallelism";
+
+	private static final int DEFAULT_TERMINATE_BATCH_SIZE = 20;
+	private static final int DEFAULT_TERMINATE_PARALLELISM = 4;
+
+	/**
+	 * Terminates a batch of instances with a single CLI invocation.
+	 */
+	protected interface TerminateBatch {
+		void terminate(List<String> instanceIds) throws IOException,
+				SlipStreamException;
+	}
+
 	@Override
 	abstract public String getCloudServiceName();
 
@@ -65,27 +91,15 @@ public abstract class CliConnectorBase extends ConnectorBase {
 	}
 
 	protected String getKey(User user) {
-		return wrapInSingleQuotesOrNull(super.getKey(user));
+		return nullIfEmpty(super.getKey(user));
 	}
 	
 	protected String getSecret(User user) {
-		return wrapInSingleQuotesOrNull(super.getSecret(user));
+		return nullIfEmpty(super.getSecret(user));
 	}
 
-	protected String wrapInSingleQuotesOrNull(String value) {
-		if (value == null || value.isEmpty()) {
-			return null;
-		} else {
-			return wrapInSingleQuotes(value);
-		}
-	}
-	
-	protected String wrapInSingleQuotes(String value) {
-		return "'" + value.replaceAll("'","'\\\\''") + "'";
-	}
-	
-	protected String getEndpoint(User user) {
-		return wrapInSingleQuotes(super.getEndpoint(user));
+	private String nullIfEmpty(String value) {
+		return (value == null || value.isEmpty()) ? null : value;
 	}
 
 	protected String getErrorMessageLastPart(User user) {
@@ -112,4 +126,137 @@ public abstract class CliConnectorBase extends ConnectorBase {
 		return CLI_LOCATION;
 	}
 
+	protected String execGetOutput(CliCommand command) throws IOException,
+			SlipStreamClientException {
+		return execGetOutput(command, true);
+	}
+
+	/**
+	 * Runs the CLI command, on a long-lived worker if the connector type has
+	 * a {@link WorkerPool} configured, otherwise by forking the tool from
+	 * {@link #getCliLocation()}.
+	 */
+	protected String execGetOutput(CliCommand command, boolean stderrToStdout)
+			throws IOException, SlipStreamClientException {
+		WorkerPool pool = WorkerPool.forConnector(getCloudServiceName());
+		if (pool != null) {
+			return pool.exec(command, stderrToStdout)[0];
+		}
+		return ProcessUtils.execGetOutput(command.toArgv(getCliLocation()),
+				stderrToStdout);
+	}
+
+	/**
+	 * Terminates the instances in chunks of
+	 * <code>[cloud service name].terminate.batch.size</code> ids per CLI
+	 * invocation, running the chunks concurrently. Failures are logged per
+	 * instance and, once all the chunks are done, reported as a
+	 * {@link SlipStreamClientException}.
+	 */
+	protected void terminateInBatches(List<String> instanceIds,
+			TerminateBatch batch) throws SlipStreamClientException {
+		Map<String, String> failures = terminateInBatches(instanceIds,
+				getIntProperty(getCloudServiceName() + "."
+						+ TERMINATE_BATCH_SIZE_KEY,
+						getDefaultTerminateBatchSize()), getIntProperty(
+						TERMINATE_PARALLELISM_KEY,
+						DEFAULT_TERMINATE_PARALLELISM), batch);
+		if (failures.isEmpty()) {
+			return;
+		}
+		Logger logger = Logger.getLogger(this.getClass().getName());
+		for (Map.Entry<String, String> failure : failures.entrySet()) {
+			logger.warning(getConnectorInstanceName()
+					+ ". Failed to terminate instance " + failure.getKey()
+					+ ": " + failure.getValue());
+		}
+		throw (new SlipStreamClientException(getConnectorInstanceName()
+				+ ". Failed to terminate instances: " + failures.keySet()));
+	}
+
+	/**
+	 * Number of instances terminated per CLI invocation, unless configured.
+	 * Connectors whose CLI only takes a single instance id return 1.
+	 */
+	protected int getDefaultTerminateBatchSize() {
+		return DEFAULT_TERMINATE_BATCH_SIZE;
+	}
+
+	/**
+	 * When a chunk fails, its instances are terminated one by one, such that
+	 * only the instances actually failing are reported.
+	 */
+	static Map<String, String> terminateInBatches(List<String> instanceIds,
+			int batchSize, int parallelism, final TerminateBatch batch) {
+		final Map<String, String> failures = Collections
+				.synchronizedMap(new LinkedHashMap<String, String>());
+		List<List<String>> chunks = partition(instanceIds, batchSize);
+		if (chunks.isEmpty()) {
+			return failures;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(chunks.size(), parallelism)));
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final List<String> chunk : chunks) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						terminateChunk(chunk, batch, failures);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SlipStreamRuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new SlipStreamRuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return new LinkedHashMap<String, String>(failures);
+	}
+
+	private static void terminateChunk(List<String> chunk,
+			TerminateBatch batch, Map<String, String> failures) {
+		try {
+			batch.terminate(chunk);
+			return;
+		} catch (Exception e) {
+			if (chunk.size() == 1) {
+				failures.put(chunk.get(0), String.valueOf(e.getMessage()));
+				return;
+			}
+		}
+		for (String id : chunk) {
+			try {
+				batch.terminate(Collections.singletonList(id));
+			} catch (Exception e) {
+				failures.put(id, String.valueOf(e.getMessage()));
+			}
+		}
+	}
+
+	static List<List<String>> partition(List<String> values, int size) {
+		int chunkSize = Math.max(1, size);
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		for (int i = 0; i < values.size(); i += chunkSize) {
+			chunks.add(new ArrayList<String>(values.subList(i,
+					Math.min(values.size(), i + chunkSize))));
+		}
+		return chunks;
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(Configuration.getInstance()
+					.getProperty(key, String.valueOf(defaultValue)).trim());
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
 }
@@ -21,43 +21,169 @@ package com.sixsq.slipstream.connector;
  */
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.credentials.Credentials;
 import com.sixsq.slipstream.exceptions.ConfigurationException;
 import com.sixsq.slipstream.exceptions.ValidationException;
+import com.sixsq.slipstream.persistence.InstanceIdIndex;
+import com.sixsq.slipstream.persistence.Parameter;
 import com.sixsq.slipstream.persistence.Run;
 import com.sixsq.slipstream.persistence.User;
 import com.sixsq.slipstream.persistence.Vm;
-import com.sixsq.slipstream.run.RunView;
+import com.sixsq.slipstream.util.Digests;
 
 public class Collector {
 
 	private static Logger logger = Logger.getLogger(Collector.class.getName());
 
-	public static int collect(User user, Connector connector) {
-		int res = 0;
+	public static ConnectorFuture<Integer> collectAsync(User user,
+			Connector connector) {
+		List<User> users = new ArrayList<User>();
+		users.add(user);
+		return collectAsync(users, connector);
+	}
+
+	/**
+	 * Describes the instances of the cloud once, on behalf of the first user,
+	 * and populates the vms of all the users. The users must share the same
+	 * credentials on the connector (see {@link #groupByCredentials}).
+	 * 
+	 * No thread waits for the cloud: the vms are populated on the read pool
+	 * of the connector (see {@link ConnectorExecutors}) once the instances
+	 * are described, and the future completes there too. It fails if that
+	 * pool is saturated or the vms can't be stored.
+	 * 
+	 * @return the number of vm entries inserted, updated or deleted
+	 */
+	public static ConnectorFuture<Integer> collectAsync(final List<User> users,
+			final Connector connector) {
+		final ConnectorFuture<Integer> result = new ConnectorFuture<Integer>();
+		if (users.isEmpty()) {
+			result.set(0);
+			return result;
+		}
+		ConnectorFuture<Properties> pending;
 		try {
-			res = describeInstances(user, connector);
+			pending = describeInstances(users.get(0), connector);
 		} catch (ConfigurationException e) {
 			logger.severe(e.getMessage());
+			pending = ConnectorFuture.<Properties> completed(null);
 		} catch (ValidationException e) {
 			logger.warning(e.getMessage());
+			pending = ConnectorFuture.<Properties> completed(null);
+		}
+		final ConnectorFuture<Properties> described = pending;
+		described.addListener(new Runnable() {
+			public void run() {
+				// the completing thread may be the caller's or the rate
+				// limiter's, which must not do database work
+				try {
+					ConnectorExecutors.forReads(
+							connector.getConnectorInstanceName()).execute(
+							new Runnable() {
+								public void run() {
+									try {
+										result.set(populateVms(users,
+												connector, described));
+									} catch (RuntimeException e) {
+										result.setException(e);
+									}
+								}
+							});
+				} catch (RejectedExecutionException e) {
+					result.setException(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	private static int populateVms(List<User> users, Connector connector,
+			ConnectorFuture<Properties> described) {
+		Properties props = getDescribed(users.get(0), connector, described);
+		if (props == null) {
+			return 0;
+		}
+		int res = 0;
+		try {
+			for (User user : users) {
+				res += populateVmsForCloud(user,
+						connector.getConnectorInstanceName(), props);
+			}
 		} catch (IllegalArgumentException e) {
 			logger.warning(e.getMessage());
 		}
 		return res;
 	}
 
-	private static int describeInstances(User user, Connector connector)
-			throws ConfigurationException, ValidationException {
+	/**
+	 * Groups the users sharing the same credentials (endpoint, key and
+	 * secret) on the connector, such that the cloud is only called once per
+	 * group. Users for which the credentials can't be extracted end up in
+	 * their own group.
+	 */
+	public static Collection<List<User>> groupByCredentials(List<User> users,
+			Connector connector) {
+		Map<String, List<User>> groups = new LinkedHashMap<String, List<User>>();
+		for (User user : users) {
+			String fingerprint = credentialsFingerprint(user, connector);
+			List<User> group = groups.get(fingerprint);
+			if (group == null) {
+				group = new ArrayList<User>();
+				groups.put(fingerprint, group);
+			}
+			group.add(user);
+		}
+		return groups.values();
+	}
+
+	static String credentialsFingerprint(User user, Connector connector) {
+		String connectorName = connector.getConnectorInstanceName();
+		String uniqueFingerprint = "user:" + user.getName();
+		try {
+			user.addSystemParametersIntoUser(Configuration.getInstance()
+					.getParameters());
+			Credentials credentials = connector.getCredentials(user);
+			String key = credentials.getKey();
+			String secret = credentials.getSecret();
+			if (!Parameter.hasValueSet(key) || !Parameter.hasValueSet(secret)) {
+				return uniqueFingerprint;
+			}
+			String endpoint = user.getParameterValue(connectorName + "."
+					+ UserParametersFactoryBase.ENDPOINT_PARAMETER_NAME, "");
+			// digest, since the fingerprint keys long-lived maps
+			return "credentials:"
+					+ Digests.sha256(connectorName, endpoint, key, secret);
+		} catch (Exception e) {
+			return uniqueFingerprint;
+		}
+	}
+
+	private static ConnectorFuture<Properties> describeInstances(User user,
+			Connector connector) throws ConfigurationException,
+			ValidationException {
 		user.addSystemParametersIntoUser(Configuration.getInstance()
 				.getParameters());
-		Properties props = new Properties();
+		// always refreshes, but joins a request already in flight and lets
+		// the other callers reuse the result
+		return DescribeInstancesCache.describeInstancesAsync(user, connector, 0);
+	}
+
+	private static Properties getDescribed(User user, Connector connector,
+			ConnectorFuture<Properties> described) {
 		try {
-			props = connector.describeInstances(user);
+			// done, doesn't wait
+			return ConnectorGuard.await(described);
 		} catch (Exception e) {
 			logger.warning("Failed contacting cloud: "
 					+ connector.getConnectorInstanceName() + " on behalf of "
@@ -65,42 +191,34 @@ public class Collector {
 			// swallow the exception, since we don't want to fail if users
 			// have wrong credentials. But print stack trace.
 			e.printStackTrace();
-			return 0;
+			return null;
 		}
-		return populateVmsForCloud(user, connector.getConnectorInstanceName(),
-				props);
 	}
 
 	private static int populateVmsForCloud(User user, String cloud,
 			Properties props) {
+		Set<String> instanceIds = props.stringPropertyNames();
+		Map<String, String> runUuids = InstanceIdIndex.loadRunUuids(
+				user.getName(), cloud, instanceIds);
+		if (runUuids.size() < instanceIds.size()) {
+			// runs started before the instance id index existed
+			Set<String> missing = new HashSet<String>(instanceIds);
+			missing.removeAll(runUuids.keySet());
+			runUuids.putAll(Run.loadRunUuidsByInstanceIds(user.getName(),
+					missing));
+		}
 		List<Vm> vms = new ArrayList<Vm>();
 		for (String key : props.stringPropertyNames()) {
 			String instanceId = key;
 			String state = (String) props.get(key);
 			Vm vm = new Vm(instanceId, cloud, state, user.getName());
-			try {
-				String runUuid = fetchRunUuid(user, cloud, instanceId);
-				vm.setRunUuid(runUuid);
-			} catch (ConfigurationException e) {
-				logger.warning("Error fetching run uuid for instance id "
-						+ instanceId + " for cloud " + cloud);
-			} catch (ValidationException e) {
-				logger.warning("Error fetching run uuid for instance id "
-						+ instanceId + " for cloud " + cloud);
-			}
+			String runUuid = runUuids.get(instanceId);
+			vm.setRunUuid(runUuid == null ? "Unknown" : runUuid);
 			vms.add(vm);
 		}
-		Vm.update(vms, user.getName(), cloud);
-		return props.size();
-	}
-
-	private static String fetchRunUuid(User user, String cloud,
-			String instanceId) throws ConfigurationException,
-			ValidationException {
-		RunView run = Run.loadViewByInstanceId(user, instanceId, cloud);
-		if (run == null) {
-			return "Unknown";
-		}
-		return run.uuid;
+		Vm.UpdateResult result = Vm.update(vms, user.getName(), cloud);
+		logger.fine("Updated vms of user " + user.getName() + " on cloud "
+				+ cloud + ": " + result);
+		return result.getChanged();
 	}
 }
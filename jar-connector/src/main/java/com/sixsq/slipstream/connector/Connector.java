@@ -84,6 +84,23 @@ public interface Connector {
 	 */
 	Properties describeInstances(User user) throws SlipStreamException;
 
+	/**
+	 * Asynchronous variant of {@link #launch(Run, User)}: returns as soon as
+	 * the launch is started, the future completing with the run or failing
+	 * with the {@link SlipStreamException}.
+	 */
+	ConnectorFuture<Run> launchAsync(Run run, User user);
+
+	/**
+	 * Asynchronous variant of {@link #terminate(Run, User)}.
+	 */
+	ConnectorFuture<Void> terminateAsync(Run run, User user);
+
+	/**
+	 * Asynchronous variant of {@link #describeInstances(User)}.
+	 */
+	ConnectorFuture<Properties> describeInstancesAsync(User user);
+
 	/**
 	 * @return list of extra disk objects an image can support for this
 	 *         connector.
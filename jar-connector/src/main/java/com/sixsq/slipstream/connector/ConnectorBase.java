@@ -30,6 +30,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 import com.sixsq.slipstream.configuration.Configuration;
@@ -45,6 +47,7 @@ import com.sixsq.slipstream.exceptions.SlipStreamException;
 import com.sixsq.slipstream.exceptions.ValidationException;
 import com.sixsq.slipstream.persistence.ExtraDisk;
 import com.sixsq.slipstream.persistence.ImageModule;
+import com.sixsq.slipstream.persistence.InstanceIdIndex;
 import com.sixsq.slipstream.persistence.ModuleParameter;
 import com.sixsq.slipstream.persistence.Parameter;
 import com.sixsq.slipstream.persistence.Run;
@@ -54,6 +57,7 @@ import com.sixsq.slipstream.persistence.ServiceConfiguration;
 import com.sixsq.slipstream.persistence.ServiceConfigurationParameter;
 import com.sixsq.slipstream.persistence.User;
 import com.sixsq.slipstream.persistence.UserParameter;
+import com.sixsq.slipstream.util.Cancellation;
 import com.sixsq.slipstream.util.FileUtil;
 
 public abstract class ConnectorBase implements Connector {
@@ -137,6 +141,87 @@ public abstract class ConnectorBase implements Connector {
         return instanceName;
     }
 
+    /**
+     * Runs {@link #launch(Run, User)} on the connector's write pool.
+     * Connectors with a non-blocking client should override it.
+     */
+    public ConnectorFuture<Run> launchAsync(final Run run, final User user) {
+        return submit(ConnectorExecutors.forWrites(getConnectorInstanceName()), new AsyncCall<Run>() {
+            public Run call() throws SlipStreamException {
+                return launch(run, user);
+            }
+        });
+    }
+
+    /**
+     * Runs {@link #terminate(Run, User)} on the connector's write pool.
+     */
+    public ConnectorFuture<Void> terminateAsync(final Run run, final User user) {
+        return submit(ConnectorExecutors.forWrites(getConnectorInstanceName()), new AsyncCall<Void>() {
+            public Void call() throws SlipStreamException {
+                terminate(run, user);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs {@link #describeInstances(User)} on the connector's read pool.
+     */
+    public ConnectorFuture<Properties> describeInstancesAsync(final User user) {
+        return submit(ConnectorExecutors.forReads(getConnectorInstanceName()), new AsyncCall<Properties>() {
+            public Properties call() throws SlipStreamException {
+                return describeInstances(user);
+            }
+        });
+    }
+
+    protected interface AsyncCall<T> {
+        T call() throws SlipStreamException;
+    }
+
+    /**
+     * Runs the blocking call on a worker pool of the connector instance (see
+     * {@link ConnectorExecutors}). The cancellation handle of the caller, if
+     * any, is bound to the pool thread for the duration of the call, such
+     * that cancelling it still kills the processes forked by the call. A
+     * call whose handle is cancelled while queued isn't made, and its future
+     * is cancelled.
+     *
+     * @throws RejectedExecutionException if the queue of the pool is full
+     */
+    protected <T> ConnectorFuture<T> submit(Executor executor, final AsyncCall<T> call) {
+        final ConnectorFuture<T> future = new ConnectorFuture<T>();
+        final Cancellation cancellation = Cancellation.current();
+        executor.execute(new Runnable() {
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
+                if (cancellation != null && cancellation.isCancelled()) {
+                    // e.g. a launch timed out while queued
+                    future.cancel(false);
+                    return;
+                }
+                if (cancellation != null) {
+                    cancellation.bind();
+                }
+                try {
+                    future.set(call.call());
+                } catch (Throwable e) {
+                    future.setException(e);
+                } finally {
+                    if (cancellation != null) {
+                        cancellation.unbind();
+                        // don't leak a cancellation interrupt to the next call
+                        Thread.interrupted();
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
     public void abort(Run run, User user) throws ServerExecutionEnginePluginException {
     }
 
@@ -177,6 +262,7 @@ public abstract class ConnectorBase implements Connector {
                 RuntimeParameter.INSTANCE_ID_KEY;
 
         setRuntimeParameterValue(orchestratorInstanceIdName, instanceId, run);
+        indexInstanceId(run, instanceId, orchestratorName);
     }
 
     private void updateOrchestratorInstanceIpOnRun(Run run, String instanceHostname, String orchestratorName) throws
@@ -207,6 +293,11 @@ public abstract class ConnectorBase implements Connector {
     private void updateMachineInstanceIdOnRun(Run run, String instanceId) throws NotFoundException,
             ValidationException {
         setRuntimeParameterValue(MACHINE_INSTANCE_ID_NAME, instanceId, run);
+        indexInstanceId(run, instanceId, Run.MACHINE_NAME);
+    }
+
+    private void indexInstanceId(Run run, String instanceId, String nodeName) {
+        InstanceIdIndex.store(getConnectorInstanceName(), instanceId, run.getUuid(), nodeName, run.getUser());
     }
 
     private void updateMachineInstanceIpOnRun(Run run, String instanceHostname) throws NotFoundException,
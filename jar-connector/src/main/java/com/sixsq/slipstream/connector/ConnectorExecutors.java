@@ -0,0 +1,178 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.sixsq.slipstream.configuration.Configuration;
+
+/**
+ * Bounded worker pools running the blocking calls of the connectors, such
+ * that a slow cloud only fills its own queues. Each connector instance has
+ * two pools, so that a collection burst never queues launches behind it:
+ *
+ * <ul>
+ * <li>the write pool runs the launches and terminations, sized with
+ * <code>&lt;instance-name&gt;.connector.write.pool.size</code>, falling back
+ * to <code>slipstream.connector.write.pool.size</code>, and queuing up to
+ * <code>slipstream.connector.write.queue.size</code> calls;</li>
+ * <li>the read pool runs the describes and the processing of the collected
+ * instances, sized with <code>&lt;instance-name&gt;.collector.pool.size</code>,
+ * falling back to <code>slipstream.collector.pool.size</code>, and queuing up
+ * to <code>slipstream.collector.queue.size</code> calls.</li>
+ * </ul>
+ *
+ * Once its queue is full, a pool rejects new calls.
+ */
+public class ConnectorExecutors {
+
+	private static Logger logger = Logger.getLogger(ConnectorExecutors.class
+			.getName());
+
+	public static final String WRITE_POOL_SIZE_KEY = "connector.write.pool.size";
+	public static final String WRITE_QUEUE_SIZE_KEY = "slipstream.connector.write.queue.size";
+	public static final String READ_POOL_SIZE_KEY = "collector.pool.size";
+	public static final String READ_QUEUE_SIZE_KEY = "slipstream.collector.queue.size";
+
+	private static final int DEFAULT_WRITE_POOL_SIZE = 8;
+	private static final int DEFAULT_WRITE_QUEUE_SIZE = 256;
+	private static final int DEFAULT_READ_POOL_SIZE = 4;
+	private static final int DEFAULT_READ_QUEUE_SIZE = 512;
+
+	private static final ConcurrentMap<String, ThreadPoolExecutor> writeExecutors = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+	private static final ConcurrentMap<String, ThreadPoolExecutor> readExecutors = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+
+	/**
+	 * @return the pool of the launches and terminations of the connector
+	 */
+	public static ThreadPoolExecutor forWrites(String connectorName) {
+		return get(writeExecutors, connectorName, "write",
+				WRITE_POOL_SIZE_KEY, DEFAULT_WRITE_POOL_SIZE,
+				WRITE_QUEUE_SIZE_KEY, DEFAULT_WRITE_QUEUE_SIZE);
+	}
+
+	/**
+	 * @return the pool of the describes and collections of the connector
+	 */
+	public static ThreadPoolExecutor forReads(String connectorName) {
+		return get(readExecutors, connectorName, "read", READ_POOL_SIZE_KEY,
+				DEFAULT_READ_POOL_SIZE, READ_QUEUE_SIZE_KEY,
+				DEFAULT_READ_QUEUE_SIZE);
+	}
+
+	/**
+	 * @return the write pools created so far, per connector instance name
+	 */
+	public static Map<String, ThreadPoolExecutor> getWriteExecutors() {
+		return copy(writeExecutors);
+	}
+
+	/**
+	 * @return the read pools created so far, per connector instance name
+	 */
+	public static Map<String, ThreadPoolExecutor> getReadExecutors() {
+		return copy(readExecutors);
+	}
+
+	private static Map<String, ThreadPoolExecutor> copy(
+			Map<String, ThreadPoolExecutor> executors) {
+		return Collections
+				.unmodifiableMap(new HashMap<String, ThreadPoolExecutor>(
+						executors));
+	}
+
+	private static ThreadPoolExecutor get(
+			ConcurrentMap<String, ThreadPoolExecutor> executors,
+			String connectorName, String kind, String poolSizeKey,
+			int defaultPoolSize, String queueSizeKey, int defaultQueueSize) {
+		ThreadPoolExecutor executor = executors.get(connectorName);
+		if (executor == null) {
+			// threads are only started on the first call, so an executor
+			// losing the race is simply garbage collected
+			int size = getPoolSize(connectorName, poolSizeKey,
+					defaultPoolSize);
+			ThreadPoolExecutor created = create(connectorName + "-" + kind,
+					size, parse(getProperty(queueSizeKey, null),
+							defaultQueueSize));
+			executor = executors.putIfAbsent(connectorName, created);
+			if (executor == null) {
+				logger.info("Created " + kind + " worker pool of size " + size
+						+ " for cloud " + connectorName);
+				executor = created;
+			}
+		}
+		return executor;
+	}
+
+	private static ThreadPoolExecutor create(final String name, int size,
+			int queueSize) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "connector-" + name + "-"
+								+ count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static int getPoolSize(String connectorName, String key,
+			int defaultValue) {
+		String global = getProperty("slipstream." + key, null);
+		return parse(getProperty(connectorName + "." + key, global),
+				defaultValue);
+	}
+
+	private static String getProperty(String key, String defaultValue) {
+		try {
+			return Configuration.getInstance().getProperty(key, defaultValue);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	private static int parse(String value, int defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+}
@@ -22,9 +22,12 @@ package com.sixsq.slipstream.connector;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.sixsq.slipstream.configuration.Configuration;
 import com.sixsq.slipstream.exceptions.ConfigurationException;
@@ -36,10 +39,42 @@ import com.sixsq.slipstream.persistence.ServiceCatalogs;
 import com.sixsq.slipstream.persistence.ServiceConfiguration.RequiredParameters;
 import com.sixsq.slipstream.persistence.User;
 
+/**
+ * Registry of the configured connectors.
+ *
+ * The registry is an immutable snapshot, built once from the
+ * cloud.connector.class configuration and swapped atomically when that
+ * configuration changes (or on {@link #resetConnectors()}). Lookups read the
+ * current snapshot without locking; rebuilds, including the service catalog
+ * update, are serialized.
+ */
 public class ConnectorFactory {
 
-	private static Map<String, Connector> connectors = null;
-	private static List<String> cloudServiceNames = null;
+	static class Registry {
+		/** The class names the registry was built from, null if set explicitly */
+		final String source;
+		final Map<String, Connector> connectors;
+		final List<String> cloudServiceNames;
+
+		Registry(String source, Map<String, Connector> connectors) {
+			this.source = source;
+			this.connectors = Collections
+					.unmodifiableMap(new LinkedHashMap<String, Connector>(
+							connectors));
+			List<String> names = new ArrayList<String>();
+			for (Connector connector : connectors.values()) {
+				names.add(connector.getConnectorInstanceName());
+			}
+			this.cloudServiceNames = Collections.unmodifiableList(names);
+		}
+
+		boolean isBuiltFrom(String classNames) {
+			return source == null || source.equals(classNames);
+		}
+	}
+
+	private static final AtomicReference<Registry> registry = new AtomicReference<Registry>();
+	private static final Object rebuildLock = new Object();
 
 	public static Connector getCurrentConnector(User user)
 			throws ConfigurationException, ValidationException {
@@ -76,7 +111,8 @@ public class ConnectorFactory {
 			throw (new ValidationException("Failed to load cloud connector: "
 					+ cloudServiceName));
 		}
-		return connector.copy();
+		return (connector instanceof StatelessConnector) ? connector
+				: connector.copy();
 	}
 
 	public static Connector getConnector(String cloudServiceName, User user)
@@ -125,34 +161,40 @@ public class ConnectorFactory {
 	}
 
 	public static void resetConnectors() {
-		connectors = null;
-		cloudServiceNames = null;
+		registry.set(null);
 	}
 
+	/**
+	 * Pins the registry to the given connectors, until the next reset.
+	 */
 	public static void setConnectors(Map<String, Connector> connectors) {
-		ConnectorFactory.connectors = connectors;
-
-		cloudServiceNames = new ArrayList<String>();
-
-		for (Connector connector : connectors.values()) {
-			setServiceName(connector);
-		}
-	}
-
-	protected static void setServiceName(Connector connector) {
-		cloudServiceNames.add(connector.getConnectorInstanceName());
+		registry.set(new Registry(null, connectors));
 	}
 
 	public static Map<String, Connector> getConnectors(String[] classeNames)
 			throws ConfigurationException {
 
-		if (connectors != null) {
-			return connectors;
+		String source = Arrays.toString(classeNames);
+		Registry current = registry.get();
+		if (current != null && current.isBuiltFrom(source)) {
+			return current.connectors;
 		}
 
-		connectors = new HashMap<String, Connector>();
+		synchronized (rebuildLock) {
+			current = registry.get();
+			if (current != null && current.isBuiltFrom(source)) {
+				return current.connectors;
+			}
+			Registry fresh = new Registry(source, loadConnectors(classeNames));
+			updateServiceCatalog(fresh.cloudServiceNames);
+			registry.set(fresh);
+			return fresh.connectors;
+		}
+	}
 
-		cloudServiceNames = new ArrayList<String>();
+	private static Map<String, Connector> loadConnectors(String[] classeNames)
+			throws ConfigurationException {
+		Map<String, Connector> connectors = new LinkedHashMap<String, Connector>();
 		for (String c : classeNames) {
 			String[] nameAndClassName = c.split(":");
 
@@ -171,15 +213,11 @@ public class ConnectorFactory {
 			}
 
 			connectors.put(name, connector);
-			setServiceName(connector);
 		}
-
-		updateServiceCatalog();
-		
 		return connectors;
 	}
 
-	private static void updateServiceCatalog() {
+	private static void updateServiceCatalog(List<String> cloudServiceNames) {
 		ServiceCatalogs scs = new ServiceCatalogs();
 		for(ServiceCatalog sc : scs.getList()) {
 			if(!cloudServiceNames.contains(sc.getCloud())) {
@@ -204,6 +242,10 @@ public class ConnectorFactory {
 
 	public static Map<String, Connector> getConnectors()
 			throws ConfigurationException, ValidationException {
+		Registry current = registry.get();
+		if (current != null && current.source == null) {
+			return current.connectors;
+		}
 		return getConnectors(getConnectorClassNames());
 	}
 
@@ -225,11 +267,11 @@ public class ConnectorFactory {
 
 	public static List<String> getCloudServiceNamesList()
 			throws ConfigurationException, ValidationException {
-		if (cloudServiceNames == null) {
-			// will also set the cloud service names
-			getConnectors();
+		List<String> cloudServiceNames = new ArrayList<String>();
+		for (Connector connector : getConnectors().values()) {
+			cloudServiceNames.add(connector.getConnectorInstanceName());
 		}
-		return new ArrayList<String>(cloudServiceNames);
+		return cloudServiceNames;
 	}
 
 	public static String[] getCloudServiceNames()
@@ -0,0 +1,172 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Result of an asynchronous connector operation, completed by the connector
+ * (see {@link Connector#launchAsync}). Listeners run once the result is
+ * set, in the completing thread, or immediately if it already is. A listener
+ * failing is logged and doesn't prevent the others from running.
+ *
+ * Unit test:
+ *
+ * @see ConnectorFutureTest
+ */
+public class ConnectorFuture<T> implements Future<T> {
+
+	private static Logger logger = Logger.getLogger(ConnectorFuture.class
+			.getName());
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final List<Runnable> listeners = new ArrayList<Runnable>();
+
+	private T value;
+	private Throwable failure;
+	private boolean cancelled = false;
+	private boolean completed = false;
+
+	public static <T> ConnectorFuture<T> completed(T value) {
+		ConnectorFuture<T> future = new ConnectorFuture<T>();
+		future.set(value);
+		return future;
+	}
+
+	public static <T> ConnectorFuture<T> failed(Throwable failure) {
+		ConnectorFuture<T> future = new ConnectorFuture<T>();
+		future.setException(failure);
+		return future;
+	}
+
+	/**
+	 * @return false if the future was already completed
+	 */
+	public boolean set(T value) {
+		synchronized (this) {
+			if (completed) {
+				return false;
+			}
+			this.value = value;
+			completed = true;
+		}
+		complete();
+		return true;
+	}
+
+	/**
+	 * @return false if the future was already completed
+	 */
+	public boolean setException(Throwable failure) {
+		synchronized (this) {
+			if (completed) {
+				return false;
+			}
+			this.failure = failure;
+			completed = true;
+		}
+		complete();
+		return true;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (completed) {
+				return false;
+			}
+			cancelled = true;
+			completed = true;
+		}
+		complete();
+		return true;
+	}
+
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!completed) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		run(listener);
+	}
+
+	private void complete() {
+		done.countDown();
+		List<Runnable> toRun;
+		synchronized (this) {
+			toRun = new ArrayList<Runnable>(listeners);
+			listeners.clear();
+		}
+		for (Runnable listener : toRun) {
+			run(listener);
+		}
+	}
+
+	private static void run(Runnable listener) {
+		try {
+			listener.run();
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Listener of a connector call failed", e);
+		}
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return completed;
+	}
+
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private synchronized T result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,240 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.sixsq.slipstream.connector.RateLimiter.Operation;
+import com.sixsq.slipstream.exceptions.CircuitOpenException;
+import com.sixsq.slipstream.exceptions.ConnectorBusyException;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.exceptions.SlipStreamInternalException;
+import com.sixsq.slipstream.exceptions.ValidationException;
+import com.sixsq.slipstream.metrics.Metrics;
+import com.sixsq.slipstream.persistence.Run;
+import com.sixsq.slipstream.persistence.User;
+import com.sixsq.slipstream.util.Cancellation;
+
+/**
+ * Entry point of the server's calls to the clouds: each call is rejected
+ * right away if the {@link CircuitBreaker} of the cloud is open, otherwise
+ * waits for the {@link RateLimiter} budget of the cloud, then goes through
+ * the circuit breaker, which may have opened in the meantime.
+ *
+ * The asynchronous variants hold no thread while throttled: the call is
+ * started from the rate limiter callback and its outcome recorded by the
+ * circuit breaker when the connector's future completes. Once a launch or
+ * terminate completes, the {@link DescribeInstancesCache} entry of the
+ * account is dropped.
+ */
+public class ConnectorGuard {
+
+	private interface AsyncCall<T> {
+		ConnectorFuture<T> start();
+	}
+
+	public static Run launch(Connector connector, Run run, User user)
+			throws SlipStreamException {
+		return await(launchAsync(connector, run, user));
+	}
+
+	public static void terminate(Connector connector, Run run, User user)
+			throws SlipStreamException {
+		await(terminateAsync(connector, run, user));
+	}
+
+	public static Properties describeInstances(Connector connector, User user)
+			throws SlipStreamException {
+		return await(describeInstancesAsync(connector, user));
+	}
+
+	public static ConnectorFuture<Run> launchAsync(final Connector connector,
+			final Run run, final User user) {
+		return guard(connector, user, Operation.LAUNCH, new AsyncCall<Run>() {
+			public ConnectorFuture<Run> start() {
+				return connector.launchAsync(run, user);
+			}
+		});
+	}
+
+	public static ConnectorFuture<Void> terminateAsync(
+			final Connector connector, final Run run, final User user) {
+		return guard(connector, user, Operation.TERMINATE,
+				new AsyncCall<Void>() {
+					public ConnectorFuture<Void> start() {
+						return connector.terminateAsync(run, user);
+					}
+				});
+	}
+
+	public static ConnectorFuture<Properties> describeInstancesAsync(
+			final Connector connector, final User user) {
+		return guard(connector, user, Operation.DESCRIBE,
+				new AsyncCall<Properties>() {
+					public ConnectorFuture<Properties> start() {
+						return connector.describeInstancesAsync(user);
+					}
+				});
+	}
+
+	private static <T> ConnectorFuture<T> guard(final Connector connector,
+			final User user, final Operation operation, final AsyncCall<T> call) {
+		final ConnectorFuture<T> result = new ConnectorFuture<T>();
+		final CircuitBreaker breaker = CircuitBreaker.forConnector(connector
+				.getConnectorInstanceName());
+		try {
+			// don't spend a rate limit token on a call bound to be rejected
+			breaker.check();
+		} catch (CircuitOpenException e) {
+			result.setException(e);
+			return result;
+		}
+		// the callback may run in the rate limiter thread
+		final Cancellation cancellation = Cancellation.current();
+		RateLimiter.acquire(RateLimiter.key(connector, user), operation,
+				new Runnable() {
+					public void run() {
+						if (result.isCancelled()) {
+							return;
+						}
+						if (cancellation != null && cancellation.isCancelled()) {
+							// e.g. a launch timed out while throttled: a
+							// dead run must not create instances
+							result.cancel(false);
+							return;
+						}
+						try {
+							breaker.acquire();
+						} catch (CircuitOpenException e) {
+							result.setException(e);
+							return;
+						}
+						final ConnectorFuture<T> started;
+						boolean bound = cancellation != null
+								&& Cancellation.current() != cancellation;
+						if (bound) {
+							cancellation.bind();
+						}
+						try {
+							started = call.start();
+						} catch (RejectedExecutionException e) {
+							// our own backlog, says nothing about the cloud
+							breaker.release();
+							Metrics.increment("connector_rejected{connector=\""
+									+ connector.getConnectorInstanceName() + "\"}");
+							result.setException(new ConnectorBusyException(
+									"Too many pending calls to cloud "
+											+ connector.getConnectorInstanceName()));
+							return;
+						} catch (RuntimeException e) {
+							breaker.onFailure();
+							invalidate(connector, user, operation);
+							result.setException(e);
+							return;
+						} finally {
+							if (bound) {
+								cancellation.unbind();
+								Thread.interrupted();
+							}
+						}
+						started.addListener(new Runnable() {
+							public void run() {
+								// before the caller sees the result
+								invalidate(connector, user, operation);
+								complete(started, breaker, result, cancellation);
+							}
+						});
+					}
+				});
+		return result;
+	}
+
+	private static void invalidate(Connector connector, User user,
+			Operation operation) {
+		if (operation.isWrite()) {
+			DescribeInstancesCache.invalidate(user, connector);
+		}
+	}
+
+	private static <T> void complete(ConnectorFuture<T> started,
+			CircuitBreaker breaker, ConnectorFuture<T> result,
+			Cancellation cancellation) {
+		try {
+			T value = started.get();
+			breaker.onSuccess();
+			result.set(value);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ValidationException) {
+				// the user's error, says nothing about the cloud
+				breaker.release();
+			} else {
+				breaker.onFailure();
+			}
+			result.setException(e.getCause());
+		} catch (CancellationException e) {
+			if (cancellation != null && cancellation.isCancelled()) {
+				// dropped from the pool's queue, or aborted with the run
+				breaker.release();
+			} else {
+				// most often a call that timed out
+				breaker.onFailure();
+			}
+			result.cancel(false);
+		} catch (InterruptedException e) {
+			// the future is done, get() doesn't wait
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the future of an asynchronous call, unwrapping the
+	 * {@link SlipStreamException} of the call. Only meant for the callers
+	 * needing a synchronous answer (e.g. a REST resource), or for a future
+	 * already done.
+	 */
+	public static <T> T await(ConnectorFuture<T> future)
+			throws SlipStreamException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SlipStreamException) {
+				throw (SlipStreamException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SlipStreamInternalException(cause);
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new SlipStreamInternalException(
+					"Interrupted waiting for the cloud");
+		}
+	}
+
+}
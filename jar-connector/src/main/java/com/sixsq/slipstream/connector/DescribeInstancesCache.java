@@ -0,0 +1,271 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.metrics.Metrics;
+import com.sixsq.slipstream.persistence.User;
+
+/**
+ * Shared cache of the describeInstances results, per connector instance and
+ * credentials (see {@link Collector#credentialsFingerprint}), such that users
+ * of the same cloud account, the collector and the UI don't query the cloud
+ * again for results fetched a few seconds ago.
+ *
+ * Concurrent callers for the same key share the single request in flight
+ * instead of issuing their own, and get the result once it completes,
+ * without holding a thread meanwhile. Failures are not cached, and the entry
+ * of an account is dropped when a launch or terminate on it completes (see
+ * {@link ConnectorGuard}). Expired entries are evicted at most once per TTL.
+ *
+ * Unit test:
+ *
+ * @see DescribeInstancesCacheTest
+ */
+public class DescribeInstancesCache {
+
+	public static final String TTL_KEY = "slipstream.describe.cache.ttl";
+
+	private static final int DEFAULT_TTL_SECONDS = 30;
+
+	private static final DescribeInstancesCache instance = new DescribeInstancesCache();
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong lastEviction = new AtomicLong(
+			System.currentTimeMillis());
+
+	static class Entry {
+
+		private final ConnectorFuture<Properties> future = new ConnectorFuture<Properties>();
+		private volatile long fetchedAt = 0;
+
+		boolean isOlderThan(long maxStalenessMsecs) {
+			return future.isDone()
+					&& System.currentTimeMillis() - fetchedAt > maxStalenessMsecs;
+		}
+	}
+
+	interface Loader {
+		ConnectorFuture<Properties> load();
+	}
+
+	DescribeInstancesCache() {
+	}
+
+	public static DescribeInstancesCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the instances of the user's cloud account, fetched at most
+	 * <code>slipstream.describe.cache.ttl</code> seconds ago. Waits for the
+	 * cloud: for the synchronous answers of the REST resources.
+	 */
+	public static Properties describeInstances(User user, Connector connector)
+			throws SlipStreamException {
+		return ConnectorGuard.await(describeInstancesAsync(user, connector,
+				getTtlSeconds() * 1000L));
+	}
+
+	/**
+	 * Returns the instances of the user's cloud account, fetched at most
+	 * maxStalenessMsecs ago. A max staleness of 0 forces a new request,
+	 * unless one is already in flight.
+	 */
+	public static ConnectorFuture<Properties> describeInstancesAsync(
+			final User user, final Connector connector, long maxStalenessMsecs) {
+		instance.evictExpired(getTtlSeconds() * 1000L);
+		return instance.getAsync(key(user, connector), maxStalenessMsecs,
+				new Loader() {
+					public ConnectorFuture<Properties> load() {
+						return ConnectorGuard.describeInstancesAsync(connector,
+								user);
+					}
+				});
+	}
+
+	ConnectorFuture<Properties> getAsync(String key, long maxStalenessMsecs,
+			Loader loader) {
+		Entry entry;
+		while (true) {
+			entry = entries.get(key);
+			if (entry != null && !entry.isOlderThan(maxStalenessMsecs)) {
+				Metrics.increment(entry.future.isDone() ? "describe_cache_hits"
+						: "describe_cache_coalesced");
+				break;
+			}
+			Entry fresh = new Entry();
+			boolean won = (entry == null) ? entries.putIfAbsent(key, fresh) == null
+					: entries.replace(key, entry, fresh);
+			if (won) {
+				Metrics.increment("describe_cache_misses");
+				entry = fresh;
+				load(key, entry, loader);
+				break;
+			}
+		}
+		return copyOf(entry.future);
+	}
+
+	/**
+	 * Synchronous variant of {@link #getAsync}, the loader running in the
+	 * calling thread.
+	 */
+	Properties get(String key, long maxStalenessMsecs,
+			final Callable<Properties> loader) throws SlipStreamException {
+		return ConnectorGuard.await(getAsync(key, maxStalenessMsecs,
+				new Loader() {
+					public ConnectorFuture<Properties> load() {
+						try {
+							return ConnectorFuture.completed(loader.call());
+						} catch (Exception e) {
+							return ConnectorFuture.failed(e);
+						}
+					}
+				}));
+	}
+
+	private void load(final String key, final Entry entry, Loader loader) {
+		final ConnectorFuture<Properties> loaded;
+		try {
+			loaded = loader.load();
+		} catch (RuntimeException e) {
+			entries.remove(key, entry);
+			entry.future.setException(e);
+			return;
+		}
+		loaded.addListener(new Runnable() {
+			public void run() {
+				try {
+					Properties result = loaded.get();
+					entry.fetchedAt = System.currentTimeMillis();
+					entry.future.set(result);
+				} catch (ExecutionException e) {
+					// failures are not cached
+					entries.remove(key, entry);
+					entry.future.setException(e.getCause());
+				} catch (CancellationException e) {
+					entries.remove(key, entry);
+					entry.future.cancel(false);
+				} catch (InterruptedException e) {
+					// the future is done, get() doesn't wait
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Each caller gets its own copy of the result, free to modify it.
+	 */
+	private static ConnectorFuture<Properties> copyOf(
+			final ConnectorFuture<Properties> future) {
+		final ConnectorFuture<Properties> copy = new ConnectorFuture<Properties>();
+		future.addListener(new Runnable() {
+			public void run() {
+				try {
+					copy.set(copy(future.get()));
+				} catch (ExecutionException e) {
+					copy.setException(e.getCause());
+				} catch (CancellationException e) {
+					copy.cancel(false);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return copy;
+	}
+
+	private static Properties copy(Properties properties) {
+		Properties copy = new Properties();
+		if (properties != null) {
+			copy.putAll(properties);
+		}
+		return copy;
+	}
+
+	/**
+	 * Drops the cached result of the user's cloud account, e.g. after
+	 * instances were launched or terminated.
+	 */
+	public static void invalidate(User user, Connector connector) {
+		instance.invalidate(key(user, connector));
+	}
+
+	void invalidate(String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Drops all the cached results.
+	 */
+	public void invalidate() {
+		entries.clear();
+	}
+
+	/**
+	 * Removes the entries fetched more than ttlMsecs ago, unless this was
+	 * already done within the last ttlMsecs.
+	 */
+	void evictExpired(long ttlMsecs) {
+		long last = lastEviction.get();
+		long now = System.currentTimeMillis();
+		if (now - last < ttlMsecs || !lastEviction.compareAndSet(last, now)) {
+			return;
+		}
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getValue().isOlderThan(ttlMsecs)) {
+				entries.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static String key(User user, Connector connector) {
+		return connector.getConnectorInstanceName() + "\n"
+				+ Collector.credentialsFingerprint(user, connector);
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	private static int getTtlSeconds() {
+		try {
+			return Integer.parseInt(Configuration.getInstance()
+					.getProperty(TTL_KEY, String.valueOf(DEFAULT_TTL_SECONDS))
+					.trim());
+		} catch (Exception e) {
+			return DEFAULT_TTL_SECONDS;
+		}
+	}
+
+}
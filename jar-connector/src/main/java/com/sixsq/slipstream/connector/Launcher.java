@@ -20,35 +20,78 @@ package com.sixsq.slipstream.connector;
  * -=================================================================-
  */
 
-import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-import com.sixsq.slipstream.exceptions.NotFoundException;
+import com.sixsq.slipstream.exceptions.ConnectorBusyException;
 import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
 import com.sixsq.slipstream.exceptions.SlipStreamException;
-import com.sixsq.slipstream.exceptions.SlipStreamRuntimeException;
 import com.sixsq.slipstream.exceptions.ValidationException;
 import com.sixsq.slipstream.factory.RunFactory;
 import com.sixsq.slipstream.persistence.Module;
 import com.sixsq.slipstream.persistence.Run;
 import com.sixsq.slipstream.persistence.User;
+import com.sixsq.slipstream.util.Cancellation;
 
 public class Launcher {
 
 	private static Logger logger = Logger.getLogger(Launcher.class.getName());
 
-	public static Run launch(Run run, User user) throws SlipStreamException {
+	private static final long BUSY_RETRY_DELAY = 1000;
 
+	private static final ScheduledExecutorService retries = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "launcher-retries");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * Launches the run, forking connector processes under the given
+	 * cancellation handle. Only the preparation of the run happens in the
+	 * calling thread: the returned future completes, and the handle with it,
+	 * once the connectors of all the clouds of the run answered, without a
+	 * thread waiting for them. If the handle gets cancelled (e.g. on
+	 * timeout), the processes are destroyed and recording the abort is left
+	 * to the canceller.
+	 */
+	public static ConnectorFuture<Run> launchAsync(Run run, User user,
+			Cancellation cancellation) {
+
+		cancellation.bind();
 		try {
 			run = storeRunKeepModule(run);
-			SyncLauncher sl = new SyncLauncher(run, user);
-			sl.run();
+			AsyncLauncher launcher = new AsyncLauncher(run, user, cancellation);
+			return launcher.launch();
 		} catch (Exception ex) {
+			return ConnectorFuture.completed(failed(run, ex, cancellation));
+		} finally {
+			cancellation.unbind();
+		}
+	}
+
+	private static Run failed(Run run, Exception ex, Cancellation cancellation) {
+		try {
+			if (cancellation.isCancelled()) {
+				logger.warning("Launch of run " + run.getUuid()
+						+ " cancelled: " + ex.getMessage());
+				return run;
+			}
 			ex.printStackTrace();
 			run = Run.abort(ex.getMessage(), run.getUuid());
-			run = run.store();
+			return run.store();
+		} finally {
+			cancellation.complete();
 		}
-		return run;
 	}
 
 	private static Run storeRunKeepModule(Run run) throws ValidationException {
@@ -60,76 +103,160 @@ public class Launcher {
 		return run;
 	}
 
-	public static class SyncLauncher {
-		private Run run;
+	public static class AsyncLauncher {
+		private volatile Run run;
 		private final User user;
+		private final Cancellation cancellation;
+		private final ConnectorFuture<Run> done = new ConnectorFuture<Run>();
+		private RuntimeException failure = null;
 
-		SyncLauncher(Run run, User user) {
+		AsyncLauncher(Run run, User user, Cancellation cancellation) {
 			this.run = run;
 			this.user = user;
+			this.cancellation = cancellation;
 		}
 
-		public void run() throws NotFoundException, ValidationException {
-			launch();
+		public ConnectorFuture<Run> launch() throws SlipStreamException {
+			logger.info("Submitting asynchronous launch operation for run: "
+					+ run.getUuid());
+
+			switch (run.getType()) {
+			case Orchestration:
+			case Machine:
+				launchOnClouds(true);
+				break;
+			case Run:
+				launchOnClouds(false);
+				break;
+			default:
+				throw (new ServerExecutionEnginePluginException(
+						"Cannot submit type: " + run.getType() + " yet!!"));
+			}
+			return done;
 		}
 
-		private void launch() {
-			try {
-				logger.info("Submitting asynchronous launch operation for run: "
-						+ run.getUuid());
-
-				switch (run.getType()) {
-				case Orchestration:
-				case Machine:
-					runOrchestration();
-					break;
-				case Run:
-					runImage();
-					break;
-				default:
-					throw (new ServerExecutionEnginePluginException(
-							"Cannot submit type: " + run.getType() + " yet!!"));
+		/**
+		 * Launches the run on each of its clouds concurrently, through the
+		 * asynchronous connector calls. A cloud failing aborts its own node
+		 * (machine or orchestrator) without affecting the others. The
+		 * outcome of each cloud is handled by a listener, in the thread
+		 * completing its launch.
+		 */
+		private void launchOnClouds(final boolean orchestration)
+				throws ValidationException {
+			Set<String> clouds = RunFactory.getCloudServicesList(run);
+			final AtomicInteger pending = new AtomicInteger(clouds.size());
+			if (clouds.isEmpty()) {
+				finish();
+				return;
+			}
+			for (String cloudServiceName : clouds) {
+				launchOn(ConnectorFactory.getConnector(cloudServiceName),
+						orchestration, pending);
+			}
+		}
+
+		private void launchOn(final Connector connector,
+				final boolean orchestration, final AtomicInteger pending) {
+			final ConnectorFuture<Run> launch = ConnectorGuard.launchAsync(
+					connector, run, user);
+			launch.addListener(new Runnable() {
+				public void run() {
+					if (busy(launch) && !cancellation.isCancelled()) {
+						retry(connector, orchestration, pending);
+						return;
+					}
+					try {
+						launched(connector, launch, orchestration);
+					} finally {
+						if (pending.decrementAndGet() == 0) {
+							finish();
+						}
+					}
 				}
+			});
+		}
 
-			} catch (SlipStreamException e) {
-				logger.severe("Error executing asynchronous launch operation");
-				throw (new SlipStreamRuntimeException(e));
+		/**
+		 * The pool of the connector was full: the cloud wasn't called, so
+		 * the node isn't aborted and the launch is tried again, until it
+		 * goes through or the run is cancelled (e.g. on timeout).
+		 */
+		private void retry(final Connector connector,
+				final boolean orchestration, final AtomicInteger pending) {
+			logger.fine("Cloud " + connector.getConnectorInstanceName()
+					+ " busy, retrying the launch of run " + run.getUuid());
+			retries.schedule(new Runnable() {
+				public void run() {
+					cancellation.bind();
+					try {
+						launchOn(connector, orchestration, pending);
+					} finally {
+						cancellation.unbind();
+						Thread.interrupted();
+					}
+				}
+			}, BUSY_RETRY_DELAY, TimeUnit.MILLISECONDS);
+		}
+
+		private static boolean busy(ConnectorFuture<Run> launch) {
+			try {
+				// done, doesn't wait
+				launch.get();
+				return false;
+			} catch (ExecutionException e) {
+				return e.getCause() instanceof ConnectorBusyException;
+			} catch (CancellationException e) {
+				return false;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
 			}
 		}
-		
-		// TODO: Refactor: merge runImage and runOrchestration
-		private void runImage()
-				throws ValidationException {
-			//Connector connector = ConnectorFactory.getCurrentConnector(user);
-			HashSet<String> cloudServicesList = RunFactory
-					.getCloudServicesList(run);
-			for (String cloudServiceName : cloudServicesList) {
-				Connector connector = ConnectorFactory
-						.getConnector(cloudServiceName);
-				try {
-					connector.launch(run, user);
-				} catch (SlipStreamException e) {
-					abortRun(Run.MACHINE_NAME, e);
+
+		private void launched(Connector connector, ConnectorFuture<Run> launch,
+				boolean orchestration) {
+			try {
+				// done, doesn't wait
+				ConnectorGuard.await(launch);
+			} catch (CancellationException e) {
+				// the run was cancelled, the canceller records the abort
+				return;
+			} catch (SlipStreamException e) {
+				if (cancellation.isCancelled()) {
+					return;
+				}
+				abortRun(orchestration ? connector.getOrchestratorName(run)
+						: Run.MACHINE_NAME, e);
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					if (failure == null) {
+						failure = e;
+					}
 				}
 			}
 		}
 
-		private void runOrchestration()
-				throws ValidationException {
-			HashSet<String> cloudServicesList = RunFactory
-					.getCloudServicesList(run);
-			for (String cloudServiceName : cloudServicesList) {
-				Connector connector = ConnectorFactory
-						.getConnector(cloudServiceName);
-				try {
-					connector.launch(run, user);
-				} catch (SlipStreamException e) {
-					abortRun(connector.getOrchestratorName(run), e);
-				}
+		private void finish() {
+			RuntimeException failure;
+			synchronized (this) {
+				failure = this.failure;
+			}
+			if (failure == null) {
+				cancellation.complete();
+				done.set(run);
+				return;
+			}
+			logger.severe("Error executing asynchronous launch operation");
+			try {
+				done.set(failed(run, failure, cancellation));
+			} catch (RuntimeException e) {
+				done.setException(e);
 			}
 		}
 
-		private void abortRun(String nodename, SlipStreamException e) {
+		private synchronized void abortRun(String nodename,
+				SlipStreamException e) {
 			run = Run.abortOrReset(e.getMessage(), nodename, run.getUuid());
 		}
 
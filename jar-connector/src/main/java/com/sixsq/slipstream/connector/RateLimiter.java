@@ -0,0 +1,381 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.exceptions.SlipStreamInternalException;
+import com.sixsq.slipstream.metrics.Metrics;
+import com.sixsq.slipstream.persistence.User;
+
+/**
+ * Token bucket rate limiter of the calls to the clouds, shared by the
+ * launcher, the collector and the resources.
+ *
+ * Each connector instance (and optionally each credential on it) has a read
+ * budget (describe) and a write budget (launch, terminate), configured in
+ * calls per second and burst size:
+ *
+ * <pre>
+ * slipstream.ratelimit.read.rate = 5
+ * slipstream.ratelimit.write.burst = 10
+ * [connector instance].ratelimit.write.rate = 2
+ * </pre>
+ *
+ * A rate of 0 (the default) means unlimited. Waiting callers are served by
+ * priority, launches first, then in arrival order. Waiting doesn't hold a
+ * thread: {@link #acquire(String, Operation, Runnable)} runs the callback
+ * once a token is granted, from the limiter's own scheduler thread.
+ *
+ * Buckets unused for a while (e.g. of a credential no longer in use) are
+ * evicted, and created again on the next call.
+ *
+ * Unit test:
+ *
+ * @see RateLimiterTest
+ */
+public class RateLimiter {
+
+	private static Logger logger = Logger.getLogger(RateLimiter.class
+			.getName());
+
+	public static final String PER_CREDENTIAL_KEY = "slipstream.ratelimit.per.credential";
+
+	private static final String KEY_PREFIX = "ratelimit.";
+	private static final String GLOBAL_PREFIX = "slipstream.";
+
+	private static final long BUCKET_IDLE_MSECS = 10 * 60 * 1000;
+
+	/** Returned by an evicted bucket, the caller must get a new one */
+	private static final Waiter EVICTED = new Waiter(0, 0, null);
+
+	public enum Operation {
+		LAUNCH(true, 0), TERMINATE(true, 1), DESCRIBE(false, 0);
+
+		private final boolean write;
+		private final int priority;
+
+		private Operation(boolean write, int priority) {
+			this.write = write;
+			this.priority = priority;
+		}
+
+		public boolean isWrite() {
+			return write;
+		}
+	}
+
+	private static final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "connector-rate-limiter");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private static final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+	static {
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle(BUCKET_IDLE_MSECS);
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	static class Waiter implements Comparable<Waiter> {
+		final int priority;
+		final long sequence;
+		final Runnable onGranted;
+		final long queuedAt = System.currentTimeMillis();
+		volatile boolean cancelled = false;
+
+		Waiter(int priority, long sequence, Runnable onGranted) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.onGranted = onGranted;
+		}
+
+		public int compareTo(Waiter other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1
+					: (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	static class Bucket {
+
+		private final String name;
+		private final double ratePerSecond;
+		private final double burst;
+		private final ScheduledExecutorService scheduler;
+
+		private double tokens;
+		private long lastRefill = System.nanoTime();
+		private long sequence = 0;
+		private long lastUsed = System.nanoTime();
+		private boolean evicted = false;
+		private boolean dispatchScheduled = false;
+		private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+
+		Bucket(String name, double ratePerSecond, double burst,
+				ScheduledExecutorService scheduler) {
+			this.name = name;
+			this.ratePerSecond = ratePerSecond;
+			this.burst = Math.max(1, burst);
+			this.scheduler = scheduler;
+			this.tokens = this.burst;
+		}
+
+		/**
+		 * Runs onGranted as soon as a token is available: immediately in the
+		 * calling thread if one is, otherwise later in the scheduler thread.
+		 */
+		Waiter acquire(int priority, Runnable onGranted) {
+			Waiter waiter = null;
+			synchronized (this) {
+				if (evicted) {
+					return EVICTED;
+				}
+				lastUsed = System.nanoTime();
+				if (ratePerSecond > 0) {
+					refill();
+					if (!waiters.isEmpty() || tokens < 1) {
+						waiter = new Waiter(priority, sequence++, onGranted);
+						waiters.add(waiter);
+						Metrics.increment("ratelimit_throttled{bucket=\""
+								+ name + "\"}");
+						scheduleDispatch();
+						return waiter;
+					}
+					tokens -= 1;
+				}
+			}
+			onGranted.run();
+			return waiter;
+		}
+
+		private void dispatch() {
+			List<Waiter> granted = new ArrayList<Waiter>();
+			synchronized (this) {
+				dispatchScheduled = false;
+				refill();
+				while (!waiters.isEmpty()) {
+					if (waiters.peek().cancelled) {
+						waiters.poll();
+						continue;
+					}
+					if (tokens < 1) {
+						break;
+					}
+					tokens -= 1;
+					granted.add(waiters.poll());
+				}
+				if (!waiters.isEmpty()) {
+					scheduleDispatch();
+				}
+			}
+			for (Waiter waiter : granted) {
+				Metrics.record("ratelimit_wait_ms", System.currentTimeMillis()
+						- waiter.queuedAt);
+				try {
+					waiter.onGranted.run();
+				} catch (RuntimeException e) {
+					// the other waiters granted in this batch must still run
+					logger.log(Level.WARNING, "Rate limiter callback of "
+							+ name + " failed", e);
+				}
+			}
+		}
+
+		private void scheduleDispatch() {
+			if (dispatchScheduled) {
+				return;
+			}
+			dispatchScheduled = true;
+			long delayMicros = (long) Math.ceil(Math.max(0, 1 - tokens)
+					/ ratePerSecond * 1000000);
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					dispatch();
+				}
+			}, delayMicros, TimeUnit.MICROSECONDS);
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9
+					* ratePerSecond);
+			lastRefill = now;
+		}
+
+		synchronized int getWaiting() {
+			return waiters.size();
+		}
+
+		/**
+		 * Marks the bucket evicted if nobody used or waited on it for
+		 * idleMsecs, by which time its tokens are refilled anyway.
+		 */
+		synchronized boolean evictIfIdle(long idleMsecs) {
+			if (waiters.isEmpty()
+					&& System.nanoTime() - lastUsed > idleMsecs * 1000000L) {
+				evicted = true;
+			}
+			return evicted;
+		}
+	}
+
+	/**
+	 * Returns the limiter key of the calls to the connector on behalf of the
+	 * user: the connector instance name, or the connector and credentials if
+	 * <code>slipstream.ratelimit.per.credential</code> is set.
+	 */
+	public static String key(Connector connector, User user) {
+		String name = connector.getConnectorInstanceName();
+		if (user != null
+				&& "true".equalsIgnoreCase(getProperty(PER_CREDENTIAL_KEY,
+						"false"))) {
+			return name + "\n" + Collector.credentialsFingerprint(user, connector);
+		}
+		return name;
+	}
+
+	/**
+	 * Runs onGranted once the call is within the budget of the connector
+	 * instance (see {@link #key}). Doesn't block.
+	 */
+	public static void acquire(String key, Operation operation,
+			Runnable onGranted) {
+		enqueue(key, operation, onGranted);
+	}
+
+	private static Waiter enqueue(String key, Operation operation,
+			Runnable onGranted) {
+		Waiter waiter;
+		do {
+			waiter = getBucket(key, operation).acquire(operation.priority,
+					onGranted);
+		} while (waiter == EVICTED);
+		return waiter;
+	}
+
+	/**
+	 * Waits until the call is within the budget of the connector instance.
+	 */
+	public static void acquire(String key, Operation operation) {
+		final CountDownLatch latch = new CountDownLatch(1);
+		Waiter waiter = enqueue(key, operation, new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		});
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			if (waiter != null) {
+				waiter.cancelled = true;
+			}
+			Thread.currentThread().interrupt();
+			throw new SlipStreamInternalException(
+					"Interrupted waiting for the rate limiter of " + key);
+		}
+	}
+
+	private static Bucket getBucket(String key, Operation operation) {
+		String kind = operation.isWrite() ? "write" : "read";
+		String bucketKey = key + "|" + kind;
+		Bucket bucket = buckets.get(bucketKey);
+		if (bucket == null) {
+			String connectorName = key.split("\n")[0];
+			double rate = getDoubleProperty(connectorName, kind + ".rate", 0);
+			double burst = getDoubleProperty(connectorName, kind + ".burst",
+					Math.max(1, rate));
+			bucket = new Bucket(connectorName + "." + kind, rate, burst,
+					scheduler);
+			Bucket existing = buckets.putIfAbsent(bucketKey, bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * Removes the buckets unused for idleMsecs.
+	 */
+	static void evictIdle(long idleMsecs) {
+		for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+			if (entry.getValue().evictIfIdle(idleMsecs)) {
+				buckets.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	static int size() {
+		return buckets.size();
+	}
+
+	static void reset() {
+		buckets.clear();
+	}
+
+	/**
+	 * Reads [connector].ratelimit.[name], defaulting to
+	 * slipstream.ratelimit.[name].
+	 */
+	private static double getDoubleProperty(String connectorName,
+			String name, double defaultValue) {
+		String global = getProperty(GLOBAL_PREFIX + KEY_PREFIX + name,
+				String.valueOf(defaultValue));
+		try {
+			return Double.parseDouble(getProperty(
+					connectorName + "." + KEY_PREFIX + name, global).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static String getProperty(String key, String defaultValue) {
+		try {
+			return Configuration.getInstance().getProperty(key, defaultValue);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+}
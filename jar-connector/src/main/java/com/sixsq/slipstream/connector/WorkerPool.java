@@ -0,0 +1,419 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.exceptions.ProcessException;
+import com.sixsq.slipstream.exceptions.SlipStreamInternalException;
+import com.sixsq.slipstream.util.Cancellation;
+import com.sixsq.slipstream.util.ProcessUtils;
+
+/**
+ * Pool of long-lived worker processes executing the connector CLI commands,
+ * such that the fork and interpreter start-up costs are only paid once per
+ * worker, instead of once per command.
+ *
+ * Workers talk a line-delimited protocol over stdin/stdout:
+ *
+ * <pre>
+ * PING                                          -> PONG
+ * RUN [tool] [credential count] [argument count] -> RESULT [exit code] [base64 stdout] [base64 stderr]
+ * [name] [base64 value]     one line per credential
+ * [base64 argument]         one line per argument
+ * </pre>
+ *
+ * where the request is a {@link CliCommand}: the tool name (e.g.
+ * <code>openstack-describe-instances</code>), its credentials, named after
+ * the options carrying them on the command line, and its arguments. The
+ * worker runs the tool in-process, with the same semantics as forking it
+ * with the credentials as options. Workers are health checked (PING) after
+ * being idle, and recycled after a number of requests, on timeout or on
+ * protocol errors.
+ *
+ * A connector type opts in by configuring its worker command, e.g.
+ * <code>openstack.worker.command = /usr/bin/openstack-worker</code>.
+ *
+ * Unit test:
+ *
+ * @see WorkerPoolTest
+ */
+public class WorkerPool {
+
+	private static Logger logger = Logger.getLogger(WorkerPool.class.getName());
+
+	public static final String WORKER_COMMAND_KEY = "worker.command";
+	public static final String WORKER_POOL_SIZE_KEY = "worker.pool.size";
+
+	private static final int DEFAULT_POOL_SIZE = 2;
+	private static final int DEFAULT_MAX_REQUESTS = 1000;
+	private static final long DEFAULT_TIMEOUT_SECONDS = 1800;
+	private static final long HEALTH_CHECK_AFTER_IDLE_MSECS = 60 * 1000;
+	private static final long PING_TIMEOUT_SECONDS = 5;
+
+	private static final Map<String, Settings> pools = new HashMap<String, Settings>();
+
+	private static final ExecutorService readers = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "connector-worker-reader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private final String[] workerCommand;
+	private final int maxRequests;
+	private final long timeoutSeconds;
+
+	private final Semaphore permits;
+	private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Worker settings of a connector type, and the pool created from them.
+	 */
+	private static class Settings {
+		private int revision;
+		private final String command;
+		private final int size;
+		private final WorkerPool pool;
+
+		Settings(int revision, String command, int size, WorkerPool pool) {
+			this.revision = revision;
+			this.command = command;
+			this.size = size;
+			this.pool = pool;
+		}
+	}
+
+	static class Worker {
+
+		private final Process process;
+		private final Writer in;
+		private final BufferedReader out;
+		private int requests = 0;
+		private long lastUsed = System.currentTimeMillis();
+
+		Worker(String[] command) throws IOException {
+			process = new ProcessBuilder(command).start();
+			in = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+			out = new BufferedReader(new InputStreamReader(
+					process.getInputStream(), "UTF-8"));
+			// stderr is only drained, for the worker not to block on it
+			drain(process);
+		}
+
+		String request(String line, long timeoutSeconds) throws IOException,
+				TimeoutException {
+			requests++;
+			lastUsed = System.currentTimeMillis();
+			in.write(line);
+			in.write("\n");
+			in.flush();
+			Future<String> response = readers.submit(new Callable<String>() {
+				public String call() throws IOException {
+					return out.readLine();
+				}
+			});
+			try {
+				String result = response.get(timeoutSeconds, TimeUnit.SECONDS);
+				if (result == null) {
+					throw new IOException("Worker exited");
+				}
+				return result;
+			} catch (InterruptedException e) {
+				response.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for worker");
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause().getMessage());
+			}
+		}
+
+		boolean ping() {
+			try {
+				return "PONG".equals(request("PING", PING_TIMEOUT_SECONDS));
+			} catch (Exception e) {
+				return false;
+			}
+		}
+
+		void destroy() {
+			ProcessUtils.killTree(process);
+		}
+
+		private static void drain(final Process process) {
+			readers.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					BufferedReader err = new BufferedReader(
+							new InputStreamReader(process.getErrorStream()));
+					try {
+						String line;
+						while ((line = err.readLine()) != null) {
+							logger.fine(line);
+						}
+					} finally {
+						err.close();
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	public WorkerPool(String[] workerCommand, int size, int maxRequests,
+			long timeoutSeconds) {
+		this.workerCommand = workerCommand;
+		this.maxRequests = maxRequests;
+		this.timeoutSeconds = timeoutSeconds;
+		this.permits = new Semaphore(size, true);
+	}
+
+	/**
+	 * Returns the worker pool of the connector type, or null if the connector
+	 * type doesn't run its commands through workers. The settings are read
+	 * again once the configuration changes (see
+	 * {@link Configuration#getRevision()}): if the worker command or the
+	 * pool size changed, a new pool replaces the previous one, whose idle
+	 * workers are destroyed, and busy ones once released.
+	 */
+	public static synchronized WorkerPool forConnector(String cloudServiceName) {
+		int revision = getConfigurationRevision();
+		Settings cached = pools.get(cloudServiceName);
+		if (cached != null && revision != -1 && cached.revision == revision) {
+			return cached.pool;
+		}
+		String command = getProperty(cloudServiceName + "."
+				+ WORKER_COMMAND_KEY, null);
+		command = (command == null) ? "" : command.trim();
+		int size = DEFAULT_POOL_SIZE;
+		try {
+			size = Integer.parseInt(getProperty(cloudServiceName + "."
+					+ WORKER_POOL_SIZE_KEY, String.valueOf(size)).trim());
+		} catch (NumberFormatException e) {
+		}
+		size = Math.max(1, size);
+		if (cached != null && cached.command.equals(command)
+				&& cached.size == size) {
+			cached.revision = revision;
+			return cached.pool;
+		}
+		WorkerPool pool = null;
+		if (!"".equals(command)) {
+			pool = new WorkerPool(command.split("\\s+"), size,
+					DEFAULT_MAX_REQUESTS, DEFAULT_TIMEOUT_SECONDS);
+		}
+		if (cached != null && cached.pool != null) {
+			logger.info("Worker settings of " + cloudServiceName
+					+ " changed, replacing its worker pool");
+			cached.pool.close();
+		}
+		pools.put(cloudServiceName, new Settings(revision, command, size, pool));
+		return pool;
+	}
+
+	private static int getConfigurationRevision() {
+		try {
+			return Configuration.getInstance().getRevision();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Executes the command on a worker and returns its {stdout, stderr}. As
+	 * for {@link ProcessUtils#execGetOutputAsArray}, a non zero exit code
+	 * raises a {@link ProcessException}. If stderrToStdout is set, stderr is
+	 * appended to stdout.
+	 */
+	public String[] exec(CliCommand command, boolean stderrToStdout)
+			throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw (new SlipStreamInternalException(e));
+		}
+		Worker worker = null;
+		boolean healthy = false;
+		Cancellation cancellation = Cancellation.current();
+		try {
+			worker = borrow();
+			if (cancellation != null) {
+				cancellation.register(worker.process);
+			}
+			String response = worker.request(toRequest(command),
+					timeoutSeconds);
+			String[] result = parse(response, command);
+			healthy = true;
+			return toOutput(result, command, stderrToStdout);
+		} catch (TimeoutException e) {
+			throw (new ProcessException("Timeout executing: " + command, ""));
+		} finally {
+			if (worker != null) {
+				if (cancellation != null) {
+					cancellation.unregister(worker.process);
+				}
+				if (healthy) {
+					release(worker);
+				} else {
+					// timed out, cancelled or broken
+					worker.destroy();
+				}
+			}
+			permits.release();
+		}
+	}
+
+	private Worker borrow() throws IOException {
+		Worker worker;
+		while ((worker = idle.poll()) != null) {
+			boolean stale = System.currentTimeMillis() - worker.lastUsed > HEALTH_CHECK_AFTER_IDLE_MSECS;
+			if (!stale || worker.ping()) {
+				return worker;
+			}
+			logger.warning("Recycling unhealthy connector worker: "
+					+ workerCommand[0]);
+			worker.destroy();
+		}
+		return new Worker(workerCommand);
+	}
+
+	private void release(Worker worker) {
+		if (closed || worker.requests >= maxRequests) {
+			worker.destroy();
+		} else {
+			idle.offer(worker);
+			if (closed && idle.remove(worker)) {
+				// closed in the meantime
+				worker.destroy();
+			}
+		}
+	}
+
+	static String toRequest(CliCommand command) {
+		StringBuilder request = new StringBuilder("RUN ");
+		request.append(command.getTool()).append(" ")
+				.append(command.getCredentials().size()).append(" ")
+				.append(command.getArgs().size());
+		for (Map.Entry<String, String> credential : command.getCredentials()
+				.entrySet()) {
+			request.append("\n").append(credential.getKey()).append(" ")
+					.append(encode(credential.getValue()));
+		}
+		for (String arg : command.getArgs()) {
+			request.append("\n").append(encode(arg));
+		}
+		return request.toString();
+	}
+
+	private static String[] parse(String response, CliCommand command)
+			throws IOException {
+		String[] parts = response.split(" ", -1);
+		if (parts.length != 4 || !"RESULT".equals(parts[0])) {
+			throw new IOException("Unexpected worker response for: "
+					+ command + ". Got: " + response);
+		}
+		return parts;
+	}
+
+	private static String[] toOutput(String[] result, CliCommand command,
+			boolean stderrToStdout) {
+		int exitCode = Integer.parseInt(result[1]);
+		String out = decode(result[2]);
+		String err = decode(result[3]);
+		if (stderrToStdout) {
+			out = out + err;
+		}
+		if (exitCode != 0) {
+			String error = "Error executing: " + command
+					+ ". With exit code = " + exitCode + " and stdout: "
+					+ out + " and stderr: " + err;
+			logger.severe(error);
+			String message = stderrToStdout ? out : err;
+			throw (new ProcessException(message, out));
+		}
+		return new String[] { out, err };
+	}
+
+	/**
+	 * Destroys all the idle workers, and the busy ones once released.
+	 */
+	public void close() {
+		closed = true;
+		Worker worker;
+		while ((worker = idle.poll()) != null) {
+			worker.destroy();
+		}
+	}
+
+	int getIdle() {
+		return idle.size();
+	}
+
+	private static String encode(String value) {
+		try {
+			return DatatypeConverter.printBase64Binary(value.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw (new SlipStreamInternalException(e));
+		}
+	}
+
+	private static String decode(String value) {
+		try {
+			return new String(DatatypeConverter.parseBase64Binary(value),
+					"UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw (new SlipStreamInternalException(e));
+		}
+	}
+
+	private static String getProperty(String key, String defaultValue) {
+		try {
+			return Configuration.getInstance().getProperty(key, defaultValue);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+}
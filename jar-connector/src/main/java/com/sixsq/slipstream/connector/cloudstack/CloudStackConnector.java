@@ -27,6 +27,7 @@ import java.util.Properties;
 import java.util.logging.Logger;
 
 import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.connector.CliCommand;
 import com.sixsq.slipstream.connector.CliConnectorBase;
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.credentials.Credentials;
@@ -44,7 +45,6 @@ import com.sixsq.slipstream.persistence.Run;
 import com.sixsq.slipstream.persistence.ServiceConfigurationParameter;
 import com.sixsq.slipstream.persistence.User;
 import com.sixsq.slipstream.persistence.UserParameter;
-import com.sixsq.slipstream.util.ProcessUtils;
 
 
 public class CloudStackConnector extends CliConnectorBase {
@@ -78,7 +78,7 @@ public class CloudStackConnector extends CliConnectorBase {
 
 		validateLaunch(run, user);
 		
-		String command;
+		CliCommand command;
 		try {
 			command = getRunInstanceCommand(run, user);
 		} catch (IOException e) {
@@ -87,9 +87,8 @@ public class CloudStackConnector extends CliConnectorBase {
 		}
 
 		String result;
-		String[] commands = { "sh", "-c", command };
 		try {
-			result = ProcessUtils.execGetOutput(commands);
+			result = execGetOutput(command);
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw (new SlipStreamInternalException(e));
@@ -106,30 +105,27 @@ public class CloudStackConnector extends CliConnectorBase {
 		return run;
 	}
 
-	private String getRunInstanceCommand(Run run, User user)
+	private CliCommand getRunInstanceCommand(Run run, User user)
 			throws InvalidElementException, ValidationException,
 			SlipStreamClientException, IOException, ConfigurationException, ServerExecutionEnginePluginException {
 
-		String command = "/usr/bin/cloudstack-run-instances " +
-				getCommandBaseParams(user) +
-				" --image-id " + wrapInSingleQuotes(getImageId(run, user)) +
-				" --instance-name " + wrapInSingleQuotes(getVmName(run)) +
-				" --instance-type " + wrapInSingleQuotes(getInstanceType(run, user)) +
-				" --zone-type " + getZoneType() + 
-				" --public-key " + wrapInSingleQuotes(getPublicSshKey(run, user)) +
-				" --network-type " + getNetwork(run) +
-				" --networks " + wrapInSingleQuotes(getNetworks(run, user)) + 
-				" --context-script " + wrapInSingleQuotes(createContextualizationData(run, user));
-
-		return command;
+		return getCommand("cloudstack-run-instances", user)
+				.option("--image-id", getImageId(run, user))
+				.option("--instance-name", getVmName(run))
+				.option("--instance-type", getInstanceType(run, user))
+				.option("--zone-type", getZoneType())
+				.option("--public-key", getPublicSshKey(run, user))
+				.option("--network-type", getNetwork(run))
+				.option("--networks", getNetworks(run, user))
+				.option("--context-script", createContextualizationData(run, user));
 	}
 
-	private String getCommandBaseParams(User user) throws ValidationException {
-		return
-			" --key " + getKey(user) +
-			" --secret " + getSecret(user) +
-			" --endpoint " + getEndpoint(user) +
-			" --zone " + wrapInSingleQuotes(getZone(user));
+	private CliCommand getCommand(String tool, User user) throws ValidationException {
+		return new CliCommand(tool)
+			.credential("--key", getKey(user))
+			.credential("--secret", getSecret(user))
+			.option("--endpoint", getEndpoint(user))
+			.option("--zone", getZone(user));
 	}
 
 	protected String getVmName(Run run){
@@ -217,37 +213,29 @@ public class CloudStackConnector extends CliConnectorBase {
 	}
 
 	@Override
-	public void terminate(Run run, User user) throws SlipStreamException {
+	public void terminate(Run run, final User user) throws SlipStreamException {
 
 		validateTerminate(run, user);
 
 		Logger.getLogger(this.getClass().getName()).info(
 				getConnectorInstanceName() + ". Terminating all instances.");
 
-		String command = "/usr/bin/cloudstack-terminate-instances"
-				+ getCommandBaseParams(user);
-
-        List<String> instanceIds = getCloudNodeInstanceIds(run);
+		List<String> instanceIds = getCloudNodeInstanceIds(run);
 		if(instanceIds.isEmpty()){
 			throw new SlipStreamClientException("There is no instances to terminate");
 		}
 
-        StringBuilder instances = new StringBuilder();
-        for (String id : instanceIds) {
-            instances.append(" --instance-id ")
-                     .append(wrapInSingleQuotes(id));
-        }
-
-        String[] commands = { "sh", "-c", command + instances.toString() };
-		try {
-			ProcessUtils.execGetOutput(commands);
-		} catch (SlipStreamClientException e) {
-			Logger.getLogger(this.getClass().getName()).info(
-					getConnectorInstanceName() + ". Failed to terminate instances");
-		} catch (IOException e) {
-            Logger.getLogger(this.getClass().getName()).info(
-                    getConnectorInstanceName() + ". IO error while terminating instances");
-        }
+		terminateInBatches(instanceIds, new TerminateBatch() {
+			public void terminate(List<String> instanceIds)
+					throws IOException, SlipStreamException {
+				CliCommand command = getCommand(
+						"cloudstack-terminate-instances", user);
+				for (String id : instanceIds) {
+					command.option("--instance-id", id);
+				}
+				execGetOutput(command);
+			}
+		});
 	}
 
 	@Override
@@ -255,14 +243,12 @@ public class CloudStackConnector extends CliConnectorBase {
 
 		validateDescribe(user);
 
-		String command = "/usr/bin/cloudstack-describe-instances"
-				+ getCommandBaseParams(user);
+		CliCommand command = getCommand("cloudstack-describe-instances", user);
 
 		String result;
-		String[] commands = { "sh", "-c", command };
 
 		try {
-			result = ProcessUtils.execGetOutput(commands);
+			result = execGetOutput(command);
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw (new SlipStreamInternalException(e));
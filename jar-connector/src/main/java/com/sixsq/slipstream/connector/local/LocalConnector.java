@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.connector.ConnectorBase;
+import com.sixsq.slipstream.connector.StatelessConnector;
 import com.sixsq.slipstream.connector.stratuslab.StratusLabSystemConfigurationParametersFactory;
 import com.sixsq.slipstream.credentials.Credentials;
 import com.sixsq.slipstream.exceptions.ClientExecutionEnginePluginException;
@@ -47,7 +48,8 @@ import com.sixsq.slipstream.persistence.ServiceConfigurationParameter;
 import com.sixsq.slipstream.persistence.User;
 import com.sixsq.slipstream.persistence.UserParameter;
 
-public class LocalConnector extends ConnectorBase {
+public class LocalConnector extends ConnectorBase implements
+		StatelessConnector {
 
 	public static final String CLOUD_SERVICE_NAME = "local";
 	public static final String CLOUDCONNECTOR_PYTHON_MODULENAME = "slipstream.cloudconnectors.dummy.DummyClientCloud";
@@ -1,7 +1,6 @@
 package com.sixsq.slipstream.connector.okeanos;
 /*
 import com.google.common.base.Function;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 */
@@ -37,6 +36,11 @@ import org.jclouds.sshj.config.SshjSshClientModule;
 import java.util.*;
 
 /**
+ * Runs on the OpenStack CLI commands. These can be served by long-lived
+ * workers (see {@link com.sixsq.slipstream.connector.WorkerPool}), configured
+ * with <code>okeanos.worker.command</code>, keeping the authenticated cloud
+ * clients between calls.
+ *
  * @author Christos KK Loverdos <loverdos@gmail.com>
  */
 public class OkeanosConnector extends OpenStackConnector {
@@ -115,32 +119,24 @@ public class OkeanosConnector extends OpenStackConnector {
     }
 
     protected String getIpAddress(NovaApi client, String region, String instanceId) {
-        final FluentIterable<? extends Server> instances = client.getServerApiForZone(region).listInDetail().concat();
-        for(final Server instance : instances) {
-            if(instance.getId().equals(instanceId)) {
-                final Multimap<String, Address> addresses = instance.getAddresses();
-
-                if(instance.getId().equals(instanceId)) {
-                    if(addresses.size() > 0) {
-                        if(addresses.containsKey("public")) {
-                            final String addr = addresses.get("public").iterator().next().getAddr();
-                            return addr;
-                        }
-                        else if(addresses.containsKey("private")) {
-                            final String addr = addresses.get("private").iterator().next().getAddr();
-                            return addr;
-                        }
-                        else {
-                            final String instanceNetworkID = addresses.keySet().iterator().next();
-                            final Collection<Address> instanceAddresses = addresses.get(instanceNetworkID);
-                            if(instanceAddresses.size() > 0) {
-                                final String addr = instanceAddresses.iterator().next().getAddr();
-                                return addr;
-                            }
-                        }
-                    }
-
-                    break;
+        // direct lookup of the server, instead of listing all of them in detail
+        final Server instance = client.getServerApiForZone(region).get(instanceId);
+        if(instance == null) {
+            return "";
+        }
+        final Multimap<String, Address> addresses = instance.getAddresses();
+        if(addresses.size() > 0) {
+            if(addresses.containsKey("public")) {
+                return addresses.get("public").iterator().next().getAddr();
+            }
+            else if(addresses.containsKey("private")) {
+                return addresses.get("private").iterator().next().getAddr();
+            }
+            else {
+                final String instanceNetworkID = addresses.keySet().iterator().next();
+                final Collection<Address> instanceAddresses = addresses.get(instanceNetworkID);
+                if(instanceAddresses.size() > 0) {
+                    return instanceAddresses.iterator().next().getAddr();
                 }
             }
         }
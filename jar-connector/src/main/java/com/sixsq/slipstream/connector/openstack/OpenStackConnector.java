@@ -21,14 +21,15 @@ package com.sixsq.slipstream.connector.openstack;
  */
 
 import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.connector.CliCommand;
 import com.sixsq.slipstream.connector.CliConnectorBase;
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.credentials.Credentials;
 import com.sixsq.slipstream.exceptions.*;
 import com.sixsq.slipstream.persistence.*;
-import com.sixsq.slipstream.util.ProcessUtils;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
@@ -60,7 +61,7 @@ public class OpenStackConnector extends CliConnectorBase {
 	@Override
 	public Run launch(Run run, User user) throws SlipStreamException {
 
-		String command;
+		CliCommand command;
 		try {
 			command = getRunInstanceCommand(run, user);
 		} catch (IOException e) {
@@ -69,9 +70,8 @@ public class OpenStackConnector extends CliConnectorBase {
 		}
 
 		String result;
-		String[] commands = { "sh", "-c", command };
 		try {
-			result = ProcessUtils.execGetOutput(commands, false);
+			result = execGetOutput(command, false);
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw (new SlipStreamInternalException(e));
@@ -94,36 +94,32 @@ public class OpenStackConnector extends CliConnectorBase {
 		return run;
 	}
 
-	private String getRunInstanceCommand(Run run, User user)
+	private CliCommand getRunInstanceCommand(Run run, User user)
 			throws InvalidElementException, ValidationException,
 			SlipStreamClientException, IOException, ConfigurationException, ServerExecutionEnginePluginException {
 
 		validate(run, user);
 		
-		String command = "/usr/bin/openstack-run-instances " + 
-				getCommandUserParams(user) +
-				" --instance-type " + wrapInSingleQuotes(getInstanceType(run)) +
-				" --image-id " + wrapInSingleQuotes(getImageId(run, user)) + 
-				" --instance-name " + wrapInSingleQuotes(getVmName(run)) +
-				" --network-type " + getNetwork(run) +
-				" --security-groups " + wrapInSingleQuotes(getSecurityGroups(run)) + 
-				" --public-key " + wrapInSingleQuotes(getPublicSshKey(run, user)) +
-		 		" --context-script " + wrapInSingleQuotes(createContextualizationData(run, user));
-		 		
-		return command;
+		return getCommand("openstack-run-instances", user)
+				.option("--instance-type", getInstanceType(run))
+				.option("--image-id", getImageId(run, user))
+				.option("--instance-name", getVmName(run))
+				.option("--network-type", getNetwork(run))
+				.option("--security-groups", getSecurityGroups(run))
+				.option("--public-key", getPublicSshKey(run, user))
+				.option("--context-script", createContextualizationData(run, user));
 	}
 
-	private String getCommandUserParams(User user) throws ValidationException {
+	private CliCommand getCommand(String tool, User user) throws ValidationException {
 		validate(user);
-		return
-		" --username " + getKey(user) + 
-		" --password " + getSecret(user) + 
-		" --project " + wrapInSingleQuotes(getProject(user)) +
-		" --endpoint " + getEndpoint(user) +
-		" --region " + wrapInSingleQuotes(getRegion()) +
-		" --service-type " + wrapInSingleQuotes(getServiceType()) +
-		" --service-name " + wrapInSingleQuotes(getServiceName());
-		
+		return new CliCommand(tool)
+				.credential("--username", getKey(user))
+				.credential("--password", getSecret(user))
+				.option("--project", getProject(user))
+				.option("--endpoint", getEndpoint(user))
+				.option("--region", getRegion())
+				.option("--service-type", getServiceType())
+				.option("--service-name", getServiceName());
 	}
 	
 	protected String getServiceType() throws ConfigurationException, ValidationException {
@@ -204,26 +200,30 @@ public class OpenStackConnector extends CliConnectorBase {
 	}
 	
 	@Override
-	public void terminate(Run run, User user) throws SlipStreamException {
+	public void terminate(Run run, final User user) throws SlipStreamException {
 
 		validateCredentials(user);
 		
 		Logger.getLogger(this.getClass().getName()).info(
 				getConnectorInstanceName() + ". Terminating all instances.");
 
-		String command = "/usr/bin/openstack-terminate-instances"
-				+ getCommandUserParams(user);
+		terminateInBatches(getCloudNodeInstanceIds(run), new TerminateBatch() {
+			public void terminate(List<String> instanceIds)
+					throws IOException, SlipStreamException {
+				CliCommand command = getCommand(
+						"openstack-terminate-instances", user);
+				for (String id : instanceIds) {
+					command.option("--instance-id", id);
+				}
+				execGetOutput(command);
+			}
+		});
+	}
 
-		for (String id : getCloudNodeInstanceIds(run)) {
-			String[] commands = { "sh", "-c", command + 
-					" --instance-id " + wrapInSingleQuotes(id) };
-			try {
-				ProcessUtils.execGetOutput(commands);
-			} catch (SlipStreamClientException e) {
-				Logger.getLogger(this.getClass().getName()).info(
-						getConnectorInstanceName() + ". Failed to terminate instance " + id);
-			} catch (IOException e) { }
-		}
+	@Override
+	protected int getDefaultTerminateBatchSize() {
+		// multiple --instance-id per invocation not verified with the CLI
+		return 1;
 	}
 
 	@Override
@@ -231,14 +231,12 @@ public class OpenStackConnector extends CliConnectorBase {
 		
 		validateCredentials(user);
 		
-		String command = "/usr/bin/openstack-describe-instances"
-				+ getCommandUserParams(user);
+		CliCommand command = getCommand("openstack-describe-instances", user);
 
 		String result;
-		String[] commands = { "sh", "-c", command };
 
 		try {
-			result = ProcessUtils.execGetOutput(commands);
+			result = execGetOutput(command);
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw (new SlipStreamInternalException(e));
@@ -23,18 +23,21 @@ package com.sixsq.slipstream.connector.physicalhost;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
-import com.jcraft.jsch.Channel;
-import com.jcraft.jsch.ChannelExec;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
-import com.jcraft.jsch.UserInfo;
 import com.sixsq.slipstream.configuration.Configuration;
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.connector.ConnectorBase;
+import com.sixsq.slipstream.connector.StatelessConnector;
 import com.sixsq.slipstream.credentials.Credentials;
 import com.sixsq.slipstream.exceptions.ConfigurationException;
 import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
@@ -47,13 +50,17 @@ import com.sixsq.slipstream.persistence.ServiceConfigurationParameter;
 import com.sixsq.slipstream.persistence.User;
 import com.sixsq.slipstream.persistence.UserParameter;
 
-public class PhysicalHostConnector extends ConnectorBase {
+public class PhysicalHostConnector extends ConnectorBase implements
+		StatelessConnector {
 
 	private static Logger log = Logger.getLogger(PhysicalHostConnector.class.toString());
 
 	public static final String CLOUD_SERVICE_NAME = "physicalhost";
 	public static final String CLOUDCONNECTOR_PYTHON_MODULENAME = "slipstream.cloudconnectors.physicalhost.PhysicalHostClientCloud";
 
+	public static final String PARALLELISM_KEY = "physicalhost.ssh.parallelism";
+	private static final int DEFAULT_PARALLELISM = 8;
+
 	public PhysicalHostConnector() {
 		this(CLOUD_SERVICE_NAME);
 	}
@@ -128,10 +135,7 @@ public class PhysicalHostConnector extends ConnectorBase {
 		command += "rm -R /tmp/slipstream*; rm /tmp/tmp*; rm -R /opt/slipstream;";
 		command += "'";
 
-		for (String host : getCloudNodeInstanceIds(run)) {
-			System.out.println(host);
-			executeViaSsh(username, privateKey, password, host, command, 22);
-		}
+		executeViaSshOnHosts(username, privateKey, password, getCloudNodeInstanceIds(run), command, 22);
 	}
 
 	// Work only for Orchestrator host
@@ -235,43 +239,63 @@ public class PhysicalHostConnector extends ConnectorBase {
 	private int executeViaSsh(String user, String privateKey, String password, String host, String command, int port){
 		int exitStatus = -1;
 
+		if(privateKey == null) privateKey = "";
 		try{
-			JSch jsch=new JSch();
-
-			if(privateKey == null) privateKey = "";
-			if(!privateKey.isEmpty()) jsch.addIdentity("temp", privateKey.getBytes(), "".getBytes(), "".getBytes());
-
-			Session session=jsch.getSession(user, host, port);
-
-			UserInfo ui = new SshUserInfo(password);
-			session.setUserInfo(ui);
-			session.connect();
+			exitStatus = SshSessionPool.getInstance().exec(user, privateKey, password, host, port, command);
+			log.fine("exit-status on " + host + ": " + exitStatus);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}catch(Exception e){
+			log.warning("SSH command failed on " + host + ": " + e);
+		}
 
-			Channel channel=session.openChannel("exec");
-			((ChannelExec)channel).setCommand(command);
-			channel.setInputStream(null);
-		//channel.setOutputStream(System.out);
-		//((ChannelExec)channel).setErrStream(System.err);
-			channel.connect();
+		return exitStatus;
+	}
 
-			while(true){
-				Thread.sleep(1000);
-				if(channel.isClosed()){
-					System.out.println("exit-status: "+channel.getExitStatus());
-					break;
+	/**
+	 * Runs the command on all the hosts, with at most
+	 * <code>physicalhost.ssh.parallelism</code> hosts at a time.
+	 */
+	private void executeViaSshOnHosts(final String user, final String privateKey, final String password,
+			List<String> hosts, final String command, final int port) {
+		if (hosts.size() <= 1) {
+			for (String host : hosts) {
+				executeViaSsh(user, privateKey, password, host, command, port);
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(hosts.size(),
+				SshSessionPool.getIntProperty(PARALLELISM_KEY, DEFAULT_PARALLELISM)));
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (final String host : hosts) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() {
+						return executeViaSsh(user, privateKey, password, host, command, port);
+					}
+				}));
+			}
+			List<String> failed = new ArrayList<String>();
+			for (int i = 0; i < futures.size(); i++) {
+				String host = hosts.get(i);
+				try {
+					if (futures.get(i).get() != 0) {
+						failed.add(host);
+					}
+				} catch (ExecutionException e) {
+					log.warning("SSH command failed on " + host + ": " + e.getCause());
+					failed.add(host);
 				}
 			}
-
-			exitStatus = channel.getExitStatus();
-
-			channel.disconnect();
-			session.disconnect();
-
-		}catch(Exception e){
-			System.out.println(e);
+			if (!failed.isEmpty()) {
+				log.warning("SSH command failed on " + failed.size() + " of "
+						+ hosts.size() + " hosts: " + failed);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
 		}
-
-		return exitStatus;
 	}
 
 	private String getSudo(String username){
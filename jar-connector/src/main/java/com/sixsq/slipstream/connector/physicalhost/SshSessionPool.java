@@ -0,0 +1,308 @@
+package com.sixsq.slipstream.connector.physicalhost;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.util.Digests;
+
+/**
+ * Bounded pool of connected SSH sessions, keyed by (user, host, port,
+ * digest of the credentials). Commands run on their own exec channel of the pooled
+ * session, such that the SSH handshake and authentication are only done
+ * once per host, and concurrent commands on the same host share the
+ * session.
+ *
+ * Sessions are kept alive while pooled, and disconnected after being idle
+ * for a while or when the pool is full (least recently used first).
+ *
+ * Unit test:
+ *
+ * @see SshSessionPoolTest
+ */
+public class SshSessionPool {
+
+	private static Logger logger = Logger.getLogger(SshSessionPool.class
+			.getName());
+
+	public static final String POOL_SIZE_KEY = "physicalhost.ssh.pool.size";
+
+	private static final int DEFAULT_POOL_SIZE = 32;
+	private static final long IDLE_TIMEOUT_MSECS = 5 * 60 * 1000;
+	private static final int KEEP_ALIVE_MSECS = 30 * 1000;
+	private static final int CONNECT_TIMEOUT_MSECS = 30 * 1000;
+	private static final long POLL_MSECS = 100;
+
+	private static SshSessionPool instance;
+
+	private final int maxSessions;
+	private final SshConnector connector;
+
+	/** In access order, the eldest entry is the least recently used */
+	private final LinkedHashMap<String, PooledSession> sessions = new LinkedHashMap<String, PooledSession>(
+			16, 0.75f, true);
+
+	/**
+	 * Connected session the commands run on.
+	 */
+	interface SshSession {
+		boolean isConnected();
+
+		/**
+		 * Runs the command on its own channel and returns its exit status.
+		 */
+		int exec(String command) throws JSchException, InterruptedException;
+
+		void disconnect();
+	}
+
+	interface SshConnector {
+		SshSession connect(String user, String privateKey, String password,
+				String host, int port) throws JSchException;
+	}
+
+	static class PooledSession {
+		final SshSession session;
+		long lastUsed = System.currentTimeMillis();
+		int inUse = 0;
+
+		PooledSession(SshSession session) {
+			this.session = session;
+		}
+	}
+
+	SshSessionPool(int maxSessions) {
+		this(maxSessions, new JschConnector());
+	}
+
+	SshSessionPool(int maxSessions, SshConnector connector) {
+		this.maxSessions = maxSessions;
+		this.connector = connector;
+	}
+
+	public static synchronized SshSessionPool getInstance() {
+		if (instance == null) {
+			instance = new SshSessionPool(getIntProperty(POOL_SIZE_KEY,
+					DEFAULT_POOL_SIZE));
+			instance.startEvicting();
+		}
+		return instance;
+	}
+
+	/**
+	 * Runs the command on the host and returns its exit status. A pooled
+	 * session found broken is replaced by a new one, once.
+	 */
+	public int exec(String user, String privateKey, String password,
+			String host, int port, String command) throws JSchException,
+			InterruptedException {
+		String key = user + "@" + host + ":" + port + "#"
+				+ Digests.sha256(privateKey, password);
+		for (int attempt = 0;; attempt++) {
+			PooledSession pooled = acquire(key, user, privateKey, password,
+					host, port);
+			boolean healthy = false;
+			try {
+				int exitStatus = pooled.session.exec(command);
+				healthy = true;
+				return exitStatus;
+			} catch (JSchException e) {
+				if (attempt > 0 || pooled.session.isConnected()) {
+					throw e;
+				}
+				logger.info("Reconnecting stale SSH session to " + host);
+			} finally {
+				release(key, pooled, healthy);
+			}
+		}
+	}
+
+	private PooledSession acquire(String key, String user, String privateKey,
+			String password, String host, int port) throws JSchException {
+		synchronized (this) {
+			evictIdle();
+			PooledSession pooled = sessions.get(key);
+			if (pooled != null && pooled.session.isConnected()) {
+				pooled.inUse++;
+				return pooled;
+			}
+			if (pooled != null) {
+				sessions.remove(key);
+			}
+		}
+		// connect outside the lock, the handshake can take a while
+		PooledSession pooled = new PooledSession(connector.connect(user,
+				privateKey, password, host, port));
+		synchronized (this) {
+			pooled.inUse++;
+			PooledSession previous = sessions.put(key, pooled);
+			if (previous != null && previous.inUse == 0) {
+				previous.session.disconnect();
+			}
+			evictOverflow();
+		}
+		return pooled;
+	}
+
+	private synchronized void release(String key, PooledSession pooled,
+			boolean healthy) {
+		pooled.inUse--;
+		pooled.lastUsed = System.currentTimeMillis();
+		boolean pooledForKey = sessions.get(key) == pooled;
+		if (!healthy && pooledForKey) {
+			sessions.remove(key);
+			pooledForKey = false;
+		}
+		if (!pooledForKey && pooled.inUse == 0) {
+			pooled.session.disconnect();
+		}
+	}
+
+	static class JschConnector implements SshConnector {
+
+		public SshSession connect(String user, String privateKey,
+				String password, String host, int port) throws JSchException {
+			JSch jsch = new JSch();
+			if (privateKey != null && !privateKey.isEmpty()) {
+				jsch.addIdentity("temp", privateKey.getBytes(),
+						"".getBytes(), "".getBytes());
+			}
+			final Session session = jsch.getSession(user, host, port);
+			session.setUserInfo(new SshUserInfo(password));
+			session.setServerAliveInterval(KEEP_ALIVE_MSECS);
+			session.connect(CONNECT_TIMEOUT_MSECS);
+			return new SshSession() {
+				public boolean isConnected() {
+					return session.isConnected();
+				}
+
+				public int exec(String command) throws JSchException,
+						InterruptedException {
+					return execOn(session, command);
+				}
+
+				public void disconnect() {
+					session.disconnect();
+				}
+			};
+		}
+
+		private static int execOn(Session session, String command)
+				throws JSchException, InterruptedException {
+			ChannelExec channel = (ChannelExec) session.openChannel("exec");
+			try {
+				channel.setCommand(command);
+				channel.setInputStream(null);
+				channel.connect();
+				while (!channel.isClosed()) {
+					Thread.sleep(POLL_MSECS);
+				}
+				return channel.getExitStatus();
+			} finally {
+				channel.disconnect();
+			}
+		}
+	}
+
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<PooledSession> it = sessions.values().iterator();
+		while (it.hasNext()) {
+			PooledSession pooled = it.next();
+			if (pooled.inUse == 0
+					&& (now - pooled.lastUsed > IDLE_TIMEOUT_MSECS || !pooled.session
+							.isConnected())) {
+				it.remove();
+				pooled.session.disconnect();
+			}
+		}
+	}
+
+	private void evictOverflow() {
+		Iterator<Map.Entry<String, PooledSession>> it = sessions.entrySet()
+				.iterator();
+		while (sessions.size() > maxSessions && it.hasNext()) {
+			PooledSession pooled = it.next().getValue();
+			if (pooled.inUse == 0) {
+				it.remove();
+				pooled.session.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Disconnects all the idle sessions.
+	 */
+	public synchronized void close() {
+		Iterator<PooledSession> it = sessions.values().iterator();
+		while (it.hasNext()) {
+			PooledSession pooled = it.next();
+			if (pooled.inUse == 0) {
+				it.remove();
+				pooled.session.disconnect();
+			}
+		}
+	}
+
+	synchronized int size() {
+		return sessions.size();
+	}
+
+	private void startEvicting() {
+		ScheduledExecutorService scheduler = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "ssh-session-evictor");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				synchronized (SshSessionPool.this) {
+					evictIdle();
+				}
+			}
+		}, 1, 1, TimeUnit.MINUTES);
+	}
+
+	static int getIntProperty(String key, int defaultValue) {
+		try {
+			return Math.max(1, Integer.parseInt(Configuration.getInstance()
+					.getProperty(key, String.valueOf(defaultValue)).trim()));
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+}
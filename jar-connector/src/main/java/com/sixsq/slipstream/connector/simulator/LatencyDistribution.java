@@ -0,0 +1,130 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.Random;
+
+/**
+ * Latency distribution of a simulated cloud call, in milliseconds, parsed
+ * from its configuration value:
+ *
+ * <pre>
+ * fixed:100
+ * uniform:50:500        (min, max)
+ * exponential:200       (mean)
+ * normal:200:50         (mean, standard deviation)
+ * lognormal:200:1.0     (median, sigma)
+ * </pre>
+ *
+ * Samples are never negative.
+ */
+public class LatencyDistribution {
+
+	public static final LatencyDistribution NONE = new LatencyDistribution(
+			Type.fixed, 0, 0);
+
+	private enum Type {
+		fixed, uniform, exponential, normal, lognormal
+	}
+
+	private final Type type;
+	private final double first;
+	private final double second;
+
+	private LatencyDistribution(Type type, double first, double second) {
+		this.type = type;
+		this.first = first;
+		this.second = second;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the value isn't a valid distribution
+	 */
+	public static LatencyDistribution parse(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return NONE;
+		}
+		String[] parts = value.trim().split(":");
+		Type type;
+		try {
+			type = Type.valueOf(parts[0].trim().toLowerCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown latency distribution: "
+					+ value);
+		}
+		int arity = (type == Type.fixed || type == Type.exponential) ? 1 : 2;
+		if (parts.length != arity + 1) {
+			throw new IllegalArgumentException("Expected " + arity
+					+ " parameter(s) for " + type + " latency, got: " + value);
+		}
+		double first = parseParameter(parts[1], value);
+		double second = arity == 2 ? parseParameter(parts[2], value) : 0;
+		return new LatencyDistribution(type, first, second);
+	}
+
+	private static double parseParameter(String parameter, String value) {
+		try {
+			double parsed = Double.parseDouble(parameter.trim());
+			if (parsed < 0) {
+				throw new IllegalArgumentException(
+						"Negative latency parameter: " + value);
+			}
+			return parsed;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid latency parameter: "
+					+ value);
+		}
+	}
+
+	public long sample(Random random) {
+		double sample;
+		switch (type) {
+		case uniform:
+			sample = first + random.nextDouble() * (second - first);
+			break;
+		case exponential:
+			sample = -first * Math.log(1 - random.nextDouble());
+			break;
+		case normal:
+			sample = first + random.nextGaussian() * second;
+			break;
+		case lognormal:
+			sample = first * Math.exp(random.nextGaussian() * second);
+			break;
+		default:
+			sample = first;
+		}
+		return Math.max(0, Math.round(sample));
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+		case fixed:
+		case exponential:
+			return type + ":" + first;
+		default:
+			return type + ":" + first + ":" + second;
+		}
+	}
+
+}
@@ -0,0 +1,358 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.connector.RateLimiter.Operation;
+import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
+import com.sixsq.slipstream.metrics.Metrics;
+
+/**
+ * In-memory fleet of a simulated cloud, shared by the instances of a
+ * {@link SimulatorConnector}.
+ *
+ * Each call takes a latency sampled from the configured distribution, can be
+ * rejected when the calls exceed the cloud's rate (as real clouds do with
+ * e.g. RequestLimitExceeded), and fails at the configured failure rate.
+ * Launched instances are Pending during the boot time, then Running. Each
+ * account can also start with a fleet of background instances, such that
+ * describing it returns thousands of instances.
+ *
+ * Unit test:
+ *
+ * @see SimulatedCloudTest
+ */
+public class SimulatedCloud {
+
+	private static Logger logger = Logger.getLogger(SimulatedCloud.class
+			.getName());
+
+	public static final String LAUNCH_LATENCY_PARAMETER_NAME = "latency.launch";
+	public static final String TERMINATE_LATENCY_PARAMETER_NAME = "latency.terminate";
+	public static final String DESCRIBE_LATENCY_PARAMETER_NAME = "latency.describe";
+	public static final String FAILURE_RATE_PARAMETER_NAME = "failure.rate";
+	public static final String THROTTLE_RATE_PARAMETER_NAME = "throttle.rate";
+	public static final String FLEET_SIZE_PARAMETER_NAME = "fleet.size";
+	public static final String BOOT_SECONDS_PARAMETER_NAME = "boot.seconds";
+
+	public static final String PENDING = "Pending";
+	public static final String RUNNING = "Running";
+
+	private static final ConcurrentMap<String, SimulatedCloud> clouds = new ConcurrentHashMap<String, SimulatedCloud>();
+
+	/**
+	 * Behaviour of the simulated cloud.
+	 */
+	public static class Settings {
+		LatencyDistribution launchLatency = LatencyDistribution.NONE;
+		LatencyDistribution terminateLatency = LatencyDistribution.NONE;
+		LatencyDistribution describeLatency = LatencyDistribution.NONE;
+		/** Probability, between 0 and 1, of a call failing */
+		double failureRate = 0;
+		/** Calls per second accepted, 0 for unlimited */
+		double throttleRate = 0;
+		/** Background instances of each account */
+		int fleetSize = 0;
+		long bootMsecs = 0;
+
+		/**
+		 * Reads the settings of the connector instance from the service
+		 * configuration ([instance].latency.launch, ...). Each invalid value
+		 * is logged and replaced by its default, without affecting the
+		 * others.
+		 */
+		public static Settings load(String connectorInstanceName) {
+			Settings settings = new Settings();
+			String prefix = connectorInstanceName + ".";
+			try {
+				settings.launchLatency = LatencyDistribution.parse(getProperty(
+						prefix + LAUNCH_LATENCY_PARAMETER_NAME, null));
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			try {
+				settings.terminateLatency = LatencyDistribution
+						.parse(getProperty(prefix
+								+ TERMINATE_LATENCY_PARAMETER_NAME, null));
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			try {
+				settings.describeLatency = LatencyDistribution
+						.parse(getProperty(prefix
+								+ DESCRIBE_LATENCY_PARAMETER_NAME, null));
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			try {
+				settings.failureRate = Math.min(1, Math.max(0, Double
+						.parseDouble(getProperty(prefix
+								+ FAILURE_RATE_PARAMETER_NAME, "0"))));
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			try {
+				settings.throttleRate = Math.max(0, Double
+						.parseDouble(getProperty(prefix
+								+ THROTTLE_RATE_PARAMETER_NAME, "0")));
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			try {
+				settings.fleetSize = Math.max(0, Integer.parseInt(getProperty(
+						prefix + FLEET_SIZE_PARAMETER_NAME, "0")));
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			try {
+				settings.bootMsecs = Math.max(0, Long.parseLong(getProperty(
+						prefix + BOOT_SECONDS_PARAMETER_NAME, "0"))) * 1000;
+			} catch (IllegalArgumentException e) {
+				invalid(connectorInstanceName, e);
+			}
+			return settings;
+		}
+
+		private static void invalid(String connectorInstanceName,
+				IllegalArgumentException e) {
+			logger.warning("Invalid simulator setting of "
+					+ connectorInstanceName + ": " + e.getMessage());
+		}
+
+		/**
+		 * @return the revision of the configuration (see
+		 *         {@link Configuration#getRevision()}), or -1 if it can't be
+		 *         read
+		 */
+		static int getConfigurationRevision() {
+			try {
+				return Configuration.getInstance().getRevision();
+			} catch (Exception e) {
+				return -1;
+			}
+		}
+
+		private static String getProperty(String key, String defaultValue) {
+			String value;
+			try {
+				value = Configuration.getInstance().getProperty(key,
+						defaultValue);
+			} catch (Exception e) {
+				return defaultValue;
+			}
+			return value == null || value.trim().isEmpty() ? defaultValue
+					: value.trim();
+		}
+	}
+
+	public static class Instance {
+		final String id;
+		final String ip;
+		final long launchedAt;
+
+		Instance(String id, String ip, long launchedAt) {
+			this.id = id;
+			this.ip = ip;
+			this.launchedAt = launchedAt;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getIp() {
+			return ip;
+		}
+	}
+
+	private final String name;
+	private final Random random = new Random();
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicInteger size = new AtomicInteger();
+	private final ConcurrentMap<String, Map<String, Instance>> accounts = new ConcurrentHashMap<String, Map<String, Instance>>();
+
+	private volatile Settings settings = new Settings();
+	private int settingsRevision = Integer.MIN_VALUE;
+
+	private long windowStart = 0;
+	private int windowCalls = 0;
+
+	SimulatedCloud(String name) {
+		this.name = name;
+	}
+
+	public static SimulatedCloud forConnector(String connectorInstanceName) {
+		SimulatedCloud cloud = clouds.get(connectorInstanceName);
+		if (cloud == null) {
+			cloud = new SimulatedCloud(connectorInstanceName);
+			SimulatedCloud existing = clouds.putIfAbsent(connectorInstanceName,
+					cloud);
+			if (existing != null) {
+				cloud = existing;
+			}
+		}
+		return cloud;
+	}
+
+	public void setSettings(Settings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Reloads the settings from the configuration, only if it changed since
+	 * they were last loaded.
+	 */
+	public void refreshSettings() {
+		int revision = Settings.getConfigurationRevision();
+		synchronized (this) {
+			if (revision == settingsRevision) {
+				return;
+			}
+			settingsRevision = revision;
+		}
+		setSettings(Settings.load(name));
+	}
+
+	public Instance runInstance(String account)
+			throws ServerExecutionEnginePluginException {
+		call(Operation.LAUNCH, settings.launchLatency);
+		Instance instance = newInstance(System.currentTimeMillis());
+		getAccount(account).put(instance.id, instance);
+		updateSize(1);
+		return instance;
+	}
+
+	/**
+	 * Terminates the instances of the account, ignoring the unknown ones.
+	 */
+	public void terminateInstances(String account, List<String> ids)
+			throws ServerExecutionEnginePluginException {
+		call(Operation.TERMINATE, settings.terminateLatency);
+		Map<String, Instance> instances = getAccount(account);
+		int removed = 0;
+		for (String id : ids) {
+			if (instances.remove(id) != null) {
+				removed++;
+			}
+		}
+		updateSize(-removed);
+	}
+
+	/**
+	 * @return the state of each instance of the account, by instance id
+	 */
+	public Properties describeInstances(String account)
+			throws ServerExecutionEnginePluginException {
+		call(Operation.DESCRIBE, settings.describeLatency);
+		long bootMsecs = settings.bootMsecs;
+		long now = System.currentTimeMillis();
+		Properties states = new Properties();
+		for (Instance instance : getAccount(account).values()) {
+			states.put(instance.id,
+					now - instance.launchedAt < bootMsecs ? PENDING : RUNNING);
+		}
+		return states;
+	}
+
+	/**
+	 * Returns the instances of the account, creating its background fleet
+	 * on first access.
+	 */
+	private Map<String, Instance> getAccount(String account) {
+		Map<String, Instance> instances = accounts.get(account);
+		if (instances == null) {
+			Map<String, Instance> fleet = new ConcurrentHashMap<String, Instance>();
+			instances = accounts.putIfAbsent(account, fleet);
+			if (instances == null) {
+				instances = fleet;
+				int fleetSize = settings.fleetSize;
+				for (int i = 0; i < fleetSize; i++) {
+					Instance instance = newInstance(0);
+					fleet.put(instance.id, instance);
+				}
+				updateSize(fleetSize);
+			}
+		}
+		return instances;
+	}
+
+	private Instance newInstance(long launchedAt) {
+		long n = sequence.incrementAndGet();
+		return new Instance("sim-" + n, "10." + ((n >> 16) & 0xff) + "."
+				+ ((n >> 8) & 0xff) + "." + (n & 0xff), launchedAt);
+	}
+
+	private void call(Operation operation, LatencyDistribution latency)
+			throws ServerExecutionEnginePluginException {
+		if (isThrottled()) {
+			throw new ServerExecutionEnginePluginException(
+					"RequestLimitExceeded: too many requests to " + name);
+		}
+		try {
+			Thread.sleep(latency.sample(random));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServerExecutionEnginePluginException("Interrupted "
+					+ operation + " on " + name);
+		}
+		if (random.nextDouble() < settings.failureRate) {
+			throw new ServerExecutionEnginePluginException("Simulated "
+					+ operation + " failure on " + name);
+		}
+	}
+
+	private synchronized boolean isThrottled() {
+		double rate = settings.throttleRate;
+		if (rate <= 0) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (now - windowStart >= 1000) {
+			windowStart = now;
+			windowCalls = 0;
+		}
+		return ++windowCalls > rate;
+	}
+
+	private void updateSize(int delta) {
+		Metrics.setGauge("simulator_instances{connector=\"" + name + "\"}",
+				size.addAndGet(delta));
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	static void reset() {
+		clouds.clear();
+	}
+
+}
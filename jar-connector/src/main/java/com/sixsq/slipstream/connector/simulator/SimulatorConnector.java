@@ -0,0 +1,140 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import com.sixsq.slipstream.connector.Connector;
+import com.sixsq.slipstream.connector.ConnectorBase;
+import com.sixsq.slipstream.connector.StatelessConnector;
+import com.sixsq.slipstream.connector.local.LocalImageParametersFactory;
+import com.sixsq.slipstream.credentials.Credentials;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.exceptions.ValidationException;
+import com.sixsq.slipstream.persistence.ModuleParameter;
+import com.sixsq.slipstream.persistence.Run;
+import com.sixsq.slipstream.persistence.ServiceConfigurationParameter;
+import com.sixsq.slipstream.persistence.User;
+import com.sixsq.slipstream.persistence.UserParameter;
+
+/**
+ * Connector to a simulated cloud (see {@link SimulatedCloud}), to load test
+ * the launcher, the collector, the quotas and the run state machine without
+ * a cloud or a network. The latencies, failure rate, throttling and fleet
+ * size are set in the service configuration of the connector instance.
+ *
+ * To enable it, add it to the connectors, e.g.:
+ *
+ * <pre>
+ * sim:com.sixsq.slipstream.connector.simulator.SimulatorConnector
+ * </pre>
+ */
+public class SimulatorConnector extends ConnectorBase implements
+		StatelessConnector {
+
+	private static Logger logger = Logger.getLogger(SimulatorConnector.class
+			.getName());
+
+	public static final String CLOUD_SERVICE_NAME = "simulator";
+
+	public SimulatorConnector() {
+		this(CLOUD_SERVICE_NAME);
+	}
+
+	public SimulatorConnector(String instanceName) {
+		super(instanceName);
+	}
+
+	public Connector copy() {
+		return new SimulatorConnector(getConnectorInstanceName());
+	}
+
+	public String getCloudServiceName() {
+		return CLOUD_SERVICE_NAME;
+	}
+
+	private SimulatedCloud getCloud() {
+		SimulatedCloud cloud = SimulatedCloud
+				.forConnector(getConnectorInstanceName());
+		cloud.refreshSettings();
+		return cloud;
+	}
+
+	@Override
+	public Run launch(Run run, User user) throws SlipStreamException {
+		SimulatedCloud.Instance instance = getCloud().runInstance(
+				user.getName());
+		updateInstanceIdAndIpOnRun(run, instance.getId(), instance.getIp());
+		return run;
+	}
+
+	@Override
+	public void terminate(Run run, User user) throws SlipStreamException {
+		List<String> ids = getCloudNodeInstanceIds(run);
+		if (ids.isEmpty()) {
+			return;
+		}
+		getCloud().terminateInstances(user.getName(), ids);
+		logger.fine("Terminated " + ids.size() + " instance(s) of run "
+				+ run.getUuid() + " on " + getConnectorInstanceName());
+	}
+
+	@Override
+	public Properties describeInstances(User user) throws SlipStreamException {
+		return getCloud().describeInstances(user.getName());
+	}
+
+	@Override
+	public Credentials getCredentials(User user) {
+		return new SimulatorCredentials(user);
+	}
+
+	@Override
+	public Map<String, ServiceConfigurationParameter> getServiceConfigurationParametersTemplate()
+			throws ValidationException {
+		return new SimulatorSystemConfigurationParametersFactory(
+				getConnectorInstanceName()).getParameters();
+	}
+
+	@Override
+	public Map<String, UserParameter> getUserParametersTemplate()
+			throws ValidationException {
+		return new SimulatorUserParametersFactory(getConnectorInstanceName())
+				.getParameters();
+	}
+
+	@Override
+	public Map<String, ModuleParameter> getImageParametersTemplate()
+			throws ValidationException {
+		return new LocalImageParametersFactory(getConnectorInstanceName())
+				.getParameters();
+	}
+
+	@Override
+	protected String constructKey(String key) throws ValidationException {
+		return new SimulatorUserParametersFactory(getConnectorInstanceName())
+				.constructKey(key);
+	}
+
+}
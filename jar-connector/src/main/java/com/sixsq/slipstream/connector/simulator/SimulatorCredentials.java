@@ -0,0 +1,44 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import com.sixsq.slipstream.connector.CredentialsBase;
+import com.sixsq.slipstream.persistence.User;
+
+/**
+ * The simulated cloud has no accounts of its own: the instances belong to
+ * the SlipStream user.
+ */
+class SimulatorCredentials extends CredentialsBase {
+
+	public SimulatorCredentials(User user) {
+		super(user);
+	}
+
+	public String getKey() {
+		return user.getName();
+	}
+
+	public String getSecret() {
+		return "simulated";
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import com.sixsq.slipstream.connector.SystemConfigurationParametersFactoryBase;
+import com.sixsq.slipstream.exceptions.ValidationException;
+
+public class SimulatorSystemConfigurationParametersFactory extends
+		SystemConfigurationParametersFactoryBase {
+
+	public SimulatorSystemConfigurationParametersFactory(
+			String connectorInstanceName) throws ValidationException {
+		super(connectorInstanceName);
+	}
+
+	protected void initReferenceParameters() throws ValidationException {
+
+		super.initReferenceParameters();
+
+		String distributions = "fixed:ms, uniform:min:max, exponential:mean, normal:mean:stddev or lognormal:median:sigma";
+
+		putParameter(constructKey(SimulatedCloud.LAUNCH_LATENCY_PARAMETER_NAME),
+				"fixed:0", "Latency of the launch calls (ms)", distributions,
+				true);
+
+		putParameter(
+				constructKey(SimulatedCloud.TERMINATE_LATENCY_PARAMETER_NAME),
+				"fixed:0", "Latency of the terminate calls (ms)",
+				distributions, true);
+
+		putParameter(
+				constructKey(SimulatedCloud.DESCRIBE_LATENCY_PARAMETER_NAME),
+				"fixed:0", "Latency of the describe calls (ms)",
+				distributions, true);
+
+		putParameter(constructKey(SimulatedCloud.FAILURE_RATE_PARAMETER_NAME),
+				"0", "Probability (0 to 1) of a call failing", true);
+
+		putParameter(constructKey(SimulatedCloud.THROTTLE_RATE_PARAMETER_NAME),
+				"0", "Calls per second before the cloud rejects calls (0: unlimited)",
+				true);
+
+		putParameter(constructKey(SimulatedCloud.FLEET_SIZE_PARAMETER_NAME),
+				"0", "Background instances of each user account", true);
+
+		putParameter(constructKey(SimulatedCloud.BOOT_SECONDS_PARAMETER_NAME),
+				"0", "Seconds a launched instance stays pending", true);
+	}
+
+}
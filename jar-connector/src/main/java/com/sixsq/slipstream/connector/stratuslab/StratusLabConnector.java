@@ -28,6 +28,7 @@ import java.util.Properties;
 import java.util.logging.Logger;
 
 import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.connector.CliCommand;
 import com.sixsq.slipstream.connector.CliConnectorBase;
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.connector.ExecutionControlUserParametersFactory;
@@ -52,7 +53,6 @@ import com.sixsq.slipstream.persistence.RunType;
 import com.sixsq.slipstream.persistence.ServiceConfigurationParameter;
 import com.sixsq.slipstream.persistence.User;
 import com.sixsq.slipstream.persistence.UserParameter;
-import com.sixsq.slipstream.util.ProcessUtils;
 
 public class StratusLabConnector extends CliConnectorBase {
 
@@ -97,7 +97,7 @@ public class StratusLabConnector extends CliConnectorBase {
 
 		validate(run, user);
 
-		String command;
+		CliCommand command;
 		try {
 			command = getRunInstanceCommand(run, user);
 		} catch (IOException e) {
@@ -106,9 +106,8 @@ public class StratusLabConnector extends CliConnectorBase {
 		}
 
 		String result;
-		String[] commands = { "sh", "-c", command };
 		try {
-			result = ProcessUtils.execGetOutput(commands);
+			result = execGetOutput(command);
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw (new SlipStreamInternalException(e));
@@ -125,24 +124,31 @@ public class StratusLabConnector extends CliConnectorBase {
 		return run;
 	}
 
-	private String getRunInstanceCommand(Run run, User user)
+	private CliCommand getRunInstanceCommand(Run run, User user)
 			throws InvalidElementException, ValidationException,
 			SlipStreamClientException, IOException, ConfigurationException,
 			ServerExecutionEnginePluginException {
 
+		// passed as a single argument, no shell quoting involved
 		String context = createContextualizationData(run, user);
 		String publicSshKey = getPublicSshKeyFileName(run, user);
 		String imageId = getImageId(run, user);
 		String vmName = getVmName(run);
 
-		String extraDisksCommand = getExtraDisksCommand(run);
+		CliCommand command = getCommand("stratus-run-instance", user)
+				.arg(imageId, "--quiet")
+				.option("--key", publicSshKey)
+				.option("--marketplace-endpoint", getMarketplaceEndpoint(user))
+				.option("--context", context)
+				.option("--vm-name", vmName + ":" + run.getName());
+		addExtraDisks(command, run);
+		return command;
+	}
 
-		return "/usr/bin/stratus-run-instance " + imageId + " --quiet --key "
-				+ publicSshKey + " -u " + getKey(user) + " -p "
-				+ getSecret(user) + " --endpoint " + getEndpoint(user)
-				+ " --marketplace-endpoint " + getMarketplaceEndpoint(user)
-				+ " --context " + context + " --vm-name " + vmName + ":"
-				+ run.getName() + extraDisksCommand;
+	private CliCommand getCommand(String tool, User user) {
+		return new CliCommand(tool).credential("-u", getKey(user))
+				.credential("-p", getSecret(user))
+				.option("--endpoint", getEndpoint(user));
 	}
 
 	protected String getMarketplaceEndpoint(User user)
@@ -259,7 +265,7 @@ public class StratusLabConnector extends CliConnectorBase {
 				+ run.getCategory().toString() + "#";
 		contextualization += "SLIPSTREAM_USERNAME=" + user.getName() + "#";
 		contextualization += "SLIPSTREAM_COOKIE="
-				+ getCookieForEnvironmentVariable(user.getName()) + "#";
+				+ generateCookie(user.getName()) + "#";
 		contextualization += "SLIPSTREAM_VERBOSITY_LEVEL=" + verbosityLevel
 				+ "#";
 		contextualization += "SLIPSTREAM_CLOUD=" + getCloudServiceName() + "#";
@@ -313,18 +319,17 @@ public class StratusLabConnector extends CliConnectorBase {
 		String bootstrapUrl = configuration
 				.getRequiredProperty("slipstream.update.clientbootstrapurl");
 
-		return "SCRIPT_EXEC=\"sleep 15; mkdir -p " + SLIPSTREAM_REPORT_DIR
+		return "SCRIPT_EXEC=sleep 15; mkdir -p " + SLIPSTREAM_REPORT_DIR
 				+ "; wget --secure-protocol=SSLv3 --no-check-certificate -O " + bootstrap + " "
 				+ bootstrapUrl + " > " + SLIPSTREAM_REPORT_DIR
 				+ "/orchestrator.slipstream.log 2>&1 && chmod 0755 "
 				+ bootstrap + "; " + bootstrap + " " + targetScript + " >> "
-				+ SLIPSTREAM_REPORT_DIR + "/orchestrator.slipstream.log 2>&1\"";
+				+ SLIPSTREAM_REPORT_DIR + "/orchestrator.slipstream.log 2>&1";
 
 	}
 
-	private String getExtraDisksCommand(Run run) {
+	private void addExtraDisks(CliCommand command, Run run) {
         if (run.getType() == RunType.Machine) {
-            StringBuilder disksParams = new StringBuilder();
             for (String diskName : EXTRADISK_NAMES) {
                 String extraDiskName = Run.MACHINE_NAME_PREFIX + ImageModule.EXTRADISK_PARAM_PREFIX + diskName;
                 String extraDiskValue = "";
@@ -332,7 +337,7 @@ public class StratusLabConnector extends CliConnectorBase {
                     extraDiskValue = run.getRuntimeParameterValue(extraDiskName);
 
                     if (!extraDiskValue.isEmpty()) {
-                        disksParams.append(" --").append(diskName).append("-disk ").append(extraDiskValue);
+                        command.option("--" + diskName + "-disk", extraDiskValue);
                     }
 
                 } catch (NotFoundException consumed) {
@@ -341,9 +346,6 @@ public class StratusLabConnector extends CliConnectorBase {
                     //ignore
                 }
             }
-            return disksParams.toString();
-        } else {
-            return "";
         }
 	}
 
@@ -353,36 +355,36 @@ public class StratusLabConnector extends CliConnectorBase {
 	}
 
 	@Override
-	public void terminate(Run run, User user) throws SlipStreamException {
+	public void terminate(Run run, final User user) throws SlipStreamException {
 
 		Logger.getLogger(this.getClass().getName()).info(
 				"Terminating all instances.");
 
-		String command = "/usr/bin/stratus-kill-instance -u " + getKey(user)
-				+ " -p " + getSecret(user) + " --endpoint " + getEndpoint(user);
-
-		for (String id : getCloudNodeInstanceIds(run)) {
-			String[] commands = { "sh", "-c", command + " " + id };
-			try {
-				ProcessUtils.execGetOutput(commands);
-			} catch (IOException e) {
+		terminateInBatches(getCloudNodeInstanceIds(run), new TerminateBatch() {
+			public void terminate(List<String> instanceIds)
+					throws IOException, SlipStreamException {
+				execGetOutput(getCommand("stratus-kill-instance", user).arg(
+						instanceIds.toArray(new String[instanceIds.size()])));
 			}
-		}
+		});
+	}
+
+	@Override
+	protected int getDefaultTerminateBatchSize() {
+		// multiple instance ids per invocation not verified with the CLI
+		return 1;
 	}
 
 	@Override
 	public Properties describeInstances(User user) throws SlipStreamException {
 		validateCredentials(user);
 
-		String command = "/usr/bin/stratus-describe-instance -u "
-				+ getKey(user) + " -p " + getSecret(user) + " --endpoint "
-				+ getEndpoint(user);
+		CliCommand command = getCommand("stratus-describe-instance", user);
 
 		String result;
-		String[] commands = { "sh", "-c", command };
 
 		try {
-			result = ProcessUtils.execGetOutput(commands);
+			result = execGetOutput(command);
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw (new SlipStreamInternalException(e));
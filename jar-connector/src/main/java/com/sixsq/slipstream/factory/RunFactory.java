@@ -31,6 +31,7 @@ import com.sixsq.slipstream.connector.CloudService;
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.connector.ConnectorBase;
 import com.sixsq.slipstream.connector.ConnectorFactory;
+import com.sixsq.slipstream.connector.DescribeInstancesCache;
 import com.sixsq.slipstream.connector.ExecutionControlUserParametersFactory;
 import com.sixsq.slipstream.connector.UserParametersFactoryBase;
 import com.sixsq.slipstream.credentials.Credentials;
@@ -376,7 +377,8 @@ public abstract class RunFactory {
 
 			Properties props;
 			try {
-				props = connector.describeInstances(user);
+				props = DescribeInstancesCache.describeInstances(user,
+						connector);
 			} catch (SlipStreamException e) {
 				Logger.warning(e.getMessage());
 				continue;
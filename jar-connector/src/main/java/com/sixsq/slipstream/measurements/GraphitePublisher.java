@@ -0,0 +1,301 @@
+package com.sixsq.slipstream.measurements;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.sixsq.slipstream.configuration.Configuration;
+import com.sixsq.slipstream.metrics.Metrics;
+
+/**
+ * Publishes usage measurements to Graphite (carbon), using its plaintext
+ * protocol. This replaces the ss-report-metrics.py script and produces the
+ * same metrics: slipstream.[user].usage.[metric].[cloud].
+ *
+ * Points of all users are buffered and written in batches over a single
+ * connection, which is kept open between flushes. If carbon can't be reached,
+ * the points stay buffered (up to the buffer capacity, dropping the oldest
+ * ones) until the next flush.
+ *
+ * Unit test:
+ *
+ * @see GraphitePublisherTest
+ */
+public class GraphitePublisher {
+
+	private static Logger logger = Logger.getLogger(GraphitePublisher.class
+			.getName());
+
+	public static final String HOST_KEY = "slipstream.metrics.graphite.host";
+	public static final String PORT_KEY = "slipstream.metrics.graphite.port";
+	public static final String BUFFER_SIZE_KEY = "slipstream.metrics.graphite.buffer.size";
+
+	private static final String DEFAULT_HOST = "localhost";
+	private static final int DEFAULT_PORT = 2003;
+	private static final int DEFAULT_BUFFER_SIZE = 100000;
+	private static final int FLUSH_PERIOD_SECONDS = 10;
+	private static final int CONNECT_TIMEOUT_MSECS = 5000;
+
+	private static final String BASE_NAME = "slipstream";
+	private static final List<String> COLLECTED_STATES = Arrays.asList(
+			"running", "active");
+
+	private static GraphitePublisher instance;
+
+	private final String host;
+	private final int port;
+	private final int capacity;
+
+	private final LinkedList<String> buffer = new LinkedList<String>();
+	private long published = 0;
+	private long dropped = 0;
+
+	private Socket socket;
+	private Writer writer;
+
+	public GraphitePublisher(String host, int port, int capacity) {
+		this.host = host;
+		this.port = port;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the shared publisher, configured from the server configuration,
+	 * flushing every few seconds.
+	 */
+	public static synchronized GraphitePublisher getInstance() {
+		if (instance == null) {
+			instance = new GraphitePublisher(getProperty(HOST_KEY,
+					DEFAULT_HOST), getIntProperty(PORT_KEY, DEFAULT_PORT),
+					getIntProperty(BUFFER_SIZE_KEY, DEFAULT_BUFFER_SIZE));
+			instance.startFlushing(FLUSH_PERIOD_SECONDS);
+		}
+		return instance;
+	}
+
+	/**
+	 * Converts the measurements into Graphite plaintext lines, aggregating the
+	 * vcpus, disk, instance and memory usage per user and cloud.
+	 */
+	public static List<String> toLines(List<Measurement> measurements,
+			long timestampSecs) {
+		Map<String, Integer> metrics = new LinkedHashMap<String, Integer>();
+		for (Measurement m : measurements) {
+			if (!isCollected(m)) {
+				continue;
+			}
+			add(metrics, m, "vcpus", m.getCpu());
+			add(metrics, m, "disk", m.getStorage());
+			add(metrics, m, "instance", 1);
+			add(metrics, m, "memory", m.getRam());
+		}
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Integer> metric : metrics.entrySet()) {
+			lines.add(metric.getKey() + " " + metric.getValue() + " "
+					+ timestampSecs);
+		}
+		return lines;
+	}
+
+	private static boolean isCollected(Measurement m) {
+		String vmstate = m.getVmState();
+		String instanceId = m.getInstanceId();
+		return vmstate != null
+				&& COLLECTED_STATES.contains(vmstate.toLowerCase())
+				&& instanceId != null && !"".equals(instanceId)
+				&& !"unknown".equals(instanceId.toLowerCase());
+	}
+
+	private static void add(Map<String, Integer> metrics, Measurement m,
+			String name, int volume) {
+		String key = BASE_NAME + "." + m.getUser() + ".usage." + name + "."
+				+ m.getCloud();
+		Integer current = metrics.get(key);
+		metrics.put(key, (current == null ? 0 : current) + volume);
+	}
+
+	/**
+	 * Buffers the points of the measurements, to be written on the next
+	 * flush. Returns the number of points buffered.
+	 */
+	public int publish(List<Measurement> measurements) {
+		List<String> lines = toLines(measurements,
+				System.currentTimeMillis() / 1000);
+		synchronized (buffer) {
+			buffer.addAll(lines);
+			while (buffer.size() > capacity) {
+				buffer.removeFirst();
+				dropped++;
+			}
+			Metrics.setGauge("metrics_points_buffered", buffer.size());
+		}
+		return lines.size();
+	}
+
+	/**
+	 * Writes all buffered points in one batch. On failure the points are put
+	 * back in the buffer and the connection is reset. Returns the number of
+	 * points written.
+	 */
+	public synchronized int flush() {
+		List<String> batch;
+		synchronized (buffer) {
+			batch = new ArrayList<String>(buffer);
+			buffer.clear();
+		}
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		long begin = System.currentTimeMillis();
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (String line : batch) {
+				sb.append(line).append("\n");
+			}
+			Writer w = getWriter();
+			w.write(sb.toString());
+			w.flush();
+			published += batch.size();
+			Metrics.increment("metrics_points_published", batch.size());
+			Metrics.record("metrics_publish_duration_ms",
+					System.currentTimeMillis() - begin);
+			return batch.size();
+		} catch (IOException e) {
+			publishFailed(batch, e);
+			return 0;
+		} catch (RuntimeException e) {
+			publishFailed(batch, e);
+			return 0;
+		}
+	}
+
+	private void publishFailed(List<String> batch, Exception e) {
+		logger.warning("Failed publishing " + batch.size()
+				+ " points to Graphite on " + host + ":" + port + ": " + e);
+		close();
+		requeue(batch);
+		Metrics.increment("metrics_publish_failures");
+	}
+
+	private void requeue(List<String> batch) {
+		synchronized (buffer) {
+			buffer.addAll(0, batch);
+			while (buffer.size() > capacity) {
+				buffer.removeFirst();
+				dropped++;
+			}
+		}
+	}
+
+	private Writer getWriter() throws IOException {
+		if (writer == null) {
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(host, port),
+					CONNECT_TIMEOUT_MSECS);
+			OutputStream out = socket.getOutputStream();
+			writer = new OutputStreamWriter(out, "UTF-8");
+		}
+		return writer;
+	}
+
+	public synchronized void close() {
+		try {
+			if (socket != null) {
+				socket.close();
+			}
+		} catch (IOException e) {
+		} finally {
+			socket = null;
+			writer = null;
+		}
+	}
+
+	private void startFlushing(int periodSecs) {
+		ScheduledExecutorService scheduler = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "graphite-publisher");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				// an exception escaping would cancel all future flushes
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					logger.warning("Failed flushing points to Graphite: " + e);
+				}
+			}
+		}, periodSecs, periodSecs, TimeUnit.SECONDS);
+	}
+
+	public int getBuffered() {
+		synchronized (buffer) {
+			return buffer.size();
+		}
+	}
+
+	public synchronized long getPublished() {
+		return published;
+	}
+
+	public long getDropped() {
+		synchronized (buffer) {
+			return dropped;
+		}
+	}
+
+	private static String getProperty(String key, String defaultValue) {
+		try {
+			return Configuration.getInstance().getProperty(key, defaultValue);
+		} catch (Exception e) {
+			return defaultValue;
+		}
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(getProperty(key,
+					String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.sixsq.slipstream.metrics;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide registry of the counters, gauges and latency histograms of the
+ * server (launcher, collector, garbage collector, metrics publisher...).
+ *
+ * Metric names may carry labels, e.g. collect_duration_ms{connector="ec2"}.
+ * The registry is rendered in the Prometheus text format by
+ * {@link #toText()}.
+ *
+ * Unit test:
+ *
+ * @see MetricsTest
+ */
+public class Metrics {
+
+	private static final String PREFIX = "slipstream_";
+
+	/** Upper bounds, in ms, of the histogram buckets */
+	private static final long[] BUCKETS = { 10, 50, 100, 250, 500, 1000, 2500,
+			5000, 10000, 30000, 60000, 300000 };
+
+	private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	public static class Histogram {
+
+		private final AtomicLong[] buckets = new AtomicLong[BUCKETS.length];
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new AtomicLong();
+			}
+		}
+
+		private void record(long millis) {
+			for (int i = 0; i < BUCKETS.length; i++) {
+				if (millis <= BUCKETS[i]) {
+					buckets[i].incrementAndGet();
+				}
+			}
+			count.incrementAndGet();
+			sum.addAndGet(millis);
+			long current;
+			while (millis > (current = max.get())) {
+				if (max.compareAndSet(current, millis)) {
+					break;
+				}
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+	}
+
+	public static void increment(String name) {
+		increment(name, 1);
+	}
+
+	public static void increment(String name, long delta) {
+		get(counters, name).addAndGet(delta);
+	}
+
+	public static void setGauge(String name, long value) {
+		get(gauges, name).set(value);
+	}
+
+	/**
+	 * Records a duration, in ms, into the latency histogram of the name.
+	 */
+	public static void record(String name, long millis) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histograms.putIfAbsent(name, new Histogram());
+			histogram = histograms.get(name);
+		}
+		histogram.record(millis);
+	}
+
+	public static long getCounter(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+
+	public static long getGauge(String name) {
+		AtomicLong gauge = gauges.get(name);
+		return gauge == null ? 0 : gauge.get();
+	}
+
+	public static Histogram getHistogram(String name) {
+		return histograms.get(name);
+	}
+
+	private static AtomicLong get(ConcurrentMap<String, AtomicLong> values,
+			String name) {
+		AtomicLong value = values.get(name);
+		if (value == null) {
+			values.putIfAbsent(name, new AtomicLong());
+			value = values.get(name);
+		}
+		return value;
+	}
+
+	/**
+	 * Renders all the metrics in the Prometheus text exposition format.
+	 */
+	public static String toText() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, AtomicLong> counter : sorted(counters)
+				.entrySet()) {
+			line(sb, counter.getKey(), "", "", counter.getValue().get());
+		}
+		for (Map.Entry<String, AtomicLong> gauge : sorted(gauges).entrySet()) {
+			line(sb, gauge.getKey(), "", "", gauge.getValue().get());
+		}
+		for (Map.Entry<String, Histogram> entry : sorted(histograms)
+				.entrySet()) {
+			String name = entry.getKey();
+			Histogram histogram = entry.getValue();
+			for (int i = 0; i < BUCKETS.length; i++) {
+				line(sb, name, "_bucket", "le=\"" + BUCKETS[i] + "\"",
+						histogram.buckets[i].get());
+			}
+			line(sb, name, "_bucket", "le=\"+Inf\"", histogram.getCount());
+			line(sb, name, "_count", "", histogram.getCount());
+			line(sb, name, "_sum", "", histogram.getSum());
+			line(sb, name, "_max", "", histogram.getMax());
+		}
+		return sb.toString();
+	}
+
+	private static <T> SortedMap<String, T> sorted(Map<String, T> values) {
+		return new TreeMap<String, T>(values);
+	}
+
+	private static void line(StringBuilder sb, String name, String suffix,
+			String extraLabel, long value) {
+		String labels = "";
+		int brace = name.indexOf('{');
+		if (brace >= 0) {
+			labels = name.substring(brace + 1, name.length() - 1);
+			name = name.substring(0, brace);
+		}
+		if (!"".equals(extraLabel)) {
+			labels = "".equals(labels) ? extraLabel : labels + ","
+					+ extraLabel;
+		}
+		sb.append(PREFIX).append(name).append(suffix);
+		if (!"".equals(labels)) {
+			sb.append("{").append(labels).append("}");
+		}
+		sb.append(" ").append(value).append("\n");
+	}
+
+	/**
+	 * Resets all the metrics. Meant for tests.
+	 */
+	public static void reset() {
+		counters.clear();
+		gauges.clear();
+		histograms.clear();
+	}
+
+}
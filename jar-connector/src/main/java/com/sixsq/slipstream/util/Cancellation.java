@@ -0,0 +1,129 @@
+package com.sixsq.slipstream.util;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cancellation handle of a long running operation (e.g. a launch).
+ *
+ * Threads working on the operation bind themselves to the handle, and the
+ * processes they fork through {@link ProcessUtils} are registered with it.
+ * Cancelling the handle destroys these processes and interrupts the threads.
+ *
+ * The handle ends either completed or cancelled, never both, such that the
+ * caller timing out and the operation finishing can't both win.
+ */
+public class Cancellation {
+
+	private enum State {
+		Running, Completed, Cancelled
+	}
+
+	private static final ThreadLocal<Cancellation> current = new ThreadLocal<Cancellation>();
+
+	private final AtomicReference<State> state = new AtomicReference<State>(
+			State.Running);
+
+	private final Set<Thread> threads = new HashSet<Thread>();
+	private final Set<Process> processes = new HashSet<Process>();
+
+	/**
+	 * Returns the handle bound to the current thread, or null.
+	 */
+	public static Cancellation current() {
+		return current.get();
+	}
+
+	/**
+	 * Binds the handle to the current thread, until {@link #unbind()}.
+	 */
+	public void bind() {
+		current.set(this);
+		synchronized (this) {
+			threads.add(Thread.currentThread());
+		}
+	}
+
+	public void unbind() {
+		synchronized (this) {
+			threads.remove(Thread.currentThread());
+		}
+		current.remove();
+	}
+
+	/**
+	 * Registers a forked process. If the handle is already cancelled, the
+	 * process is destroyed right away.
+	 */
+	public void register(Process process) {
+		synchronized (this) {
+			if (!isCancelled()) {
+				processes.add(process);
+				return;
+			}
+		}
+		process.destroy();
+	}
+
+	public synchronized void unregister(Process process) {
+		processes.remove(process);
+	}
+
+	/**
+	 * Marks the operation as completed. Returns false if it was cancelled.
+	 */
+	public boolean complete() {
+		return state.compareAndSet(State.Running, State.Completed)
+				|| state.get() == State.Completed;
+	}
+
+	/**
+	 * Cancels the operation, destroying its processes and interrupting its
+	 * threads. Returns false if the operation had already completed.
+	 */
+	public boolean cancel() {
+		if (!state.compareAndSet(State.Running, State.Cancelled)) {
+			return isCancelled();
+		}
+		Set<Process> toDestroy;
+		Set<Thread> toInterrupt;
+		synchronized (this) {
+			toDestroy = new HashSet<Process>(processes);
+			toInterrupt = new HashSet<Thread>(threads);
+			processes.clear();
+		}
+		for (Process process : toDestroy) {
+			process.destroy();
+		}
+		for (Thread thread : toInterrupt) {
+			thread.interrupt();
+		}
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return state.get() == State.Cancelled;
+	}
+
+}
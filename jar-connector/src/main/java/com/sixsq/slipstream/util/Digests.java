@@ -0,0 +1,57 @@
+package com.sixsq.slipstream.util;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
+
+/**
+ * Digests of credentials, used where they key long-lived maps (caches,
+ * pools, rate limits) such that the secrets themselves aren't kept.
+ */
+public class Digests {
+
+	private Digests() {
+	}
+
+	/**
+	 * Hex encoded SHA-256 of the parts, each followed by a NUL separator
+	 * such that ("ab", "c") and ("a", "bc") differ.
+	 */
+	public static String sha256(String... parts) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			for (String part : parts) {
+				md.update(String.valueOf(part).getBytes("UTF-8"));
+				md.update((byte) 0);
+			}
+			return (new HexBinaryAdapter()).marshal(md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
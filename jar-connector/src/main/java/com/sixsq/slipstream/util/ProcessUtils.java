@@ -22,15 +22,54 @@ package com.sixsq.slipstream.util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import com.sixsq.slipstream.configuration.Configuration;
 import com.sixsq.slipstream.exceptions.ProcessException;
 import com.sixsq.slipstream.exceptions.SlipStreamClientException;
 import com.sixsq.slipstream.exceptions.SlipStreamInternalException;
 
+/**
+ * Runs external commands (typically the connector CLIs).
+ *
+ * Commands run asynchronously: stdout and stderr are drained concurrently
+ * into bounded buffers, and the whole process tree is killed if the command
+ * exceeds its timeout. The synchronous methods wait on the returned future.
+ *
+ * Unit test:
+ *
+ * @see ProcessUtilsTest
+ */
 public class ProcessUtils {
 
+	public static final String TIMEOUT_KEY = "slipstream.process.timeout";
+	public static final String LOG_OUTPUT_KEY = "slipstream.process.log.output";
+
+	private static final long DEFAULT_TIMEOUT_SECONDS = 1800;
+	private static final int MAX_OUTPUT_CHARS = 1024 * 1024;
+	private static final String TRUNCATED = "[output truncated]\n";
+
+	private static final ExecutorService workers = Executors
+			.newCachedThreadPool(daemonThreadFactory("process-worker"));
+	private static final ScheduledExecutorService killer = Executors
+			.newSingleThreadScheduledExecutor(daemonThreadFactory("process-killer"));
 
 	public static String execGetOutput(String[] command)
 			throws IOException, SlipStreamClientException {
@@ -45,58 +84,285 @@ public class ProcessUtils {
 	public static String[] execGetOutputAsArray(String[] command, boolean stderrToStdout)
 			throws IOException, SlipStreamClientException {
 
-		StringBuilder commandMessage = new StringBuilder();
-		for (String part : command) {
-            commandMessage.append(part).append(" ");
+		Future<String[]> result = execAsync(command, stderrToStdout,
+				defaultTimeoutSeconds(), isLogOutput());
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+			throw (new SlipStreamInternalException(e));
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ProcessException) {
+				throw (ProcessException) cause;
+			}
+			if (cause instanceof SlipStreamClientException) {
+				throw (SlipStreamClientException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw (new SlipStreamInternalException(cause));
+		}
+	}
+
+	/**
+	 * Starts the command and returns a future of its {stdout, stderr}. The
+	 * future fails with a {@link ProcessException} if the command exits with
+	 * a non zero code, exceeds the timeout or is cancelled (through the
+	 * future, or the {@link Cancellation} bound to the calling thread).
+	 * Cancelling the future kills the process tree.
+	 */
+	public static Future<String[]> execAsync(final String[] command,
+			final boolean stderrToStdout, long timeoutSeconds,
+			final boolean logOutput) throws IOException {
+
+		final String commandMessage = toMessage(command);
+		getLogger().info("Calling: " + commandMessage);
+
+		final Cancellation cancellation = Cancellation.current();
+		if (cancellation != null && cancellation.isCancelled()) {
+			throw (new ProcessException("Cancelled before calling: "
+					+ commandMessage, ""));
 		}
-		getLogger().info("Calling: " + commandMessage.toString());
 
 		ProcessBuilder pb = new ProcessBuilder(command);
 		pb.redirectErrorStream(stderrToStdout);
+		final Process p = pb.start();
+		if (cancellation != null) {
+			cancellation.register(p);
+		}
 
-		Process p = pb.start();
+		final Future<String> stdout = workers.submit(drain(p.getInputStream(),
+				logOutput));
+		final Future<String> stderr = workers.submit(drain(p.getErrorStream(),
+				logOutput));
 
-		StringBuffer outputBuf = new StringBuffer();
-		BufferedReader stdOutErr = new BufferedReader(new InputStreamReader(
-				p.getInputStream()));
+		final long deadline = System.nanoTime()
+				+ TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+		// armed until the output is drained: a grandchild holding the pipes
+		// keeps the drains going after the command exited
+		final ScheduledFuture<?> timeout = killer.schedule(new Runnable() {
+			public void run() {
+				timedOut.set(true);
+				getLogger().severe("Timeout executing: " + commandMessage
+						+ ". Killing it.");
+				kill(p);
+			}
+		}, timeoutSeconds, TimeUnit.SECONDS);
 
-		StringBuffer errBuf = new StringBuffer();
-		BufferedReader stdErrReader = new BufferedReader(new InputStreamReader(
-				p.getErrorStream()));
+		return workers.submit(new Callable<String[]>() {
+			public String[] call() throws Exception {
+				try {
+					int exitCode = p.waitFor();
+					String out;
+					String err;
+					try {
+						out = stdout.get(remaining(deadline),
+								TimeUnit.NANOSECONDS);
+						err = stderr.get(remaining(deadline),
+								TimeUnit.NANOSECONDS);
+					} catch (TimeoutException e) {
+						timedOut.set(true);
+						kill(p);
+						stdout.cancel(true);
+						stderr.cancel(true);
+						throw (new ProcessException("Timeout executing: "
+								+ commandMessage, ""));
+					} catch (ExecutionException e) {
+						if (timedOut.get()) {
+							// the streams were closed under the drains
+							throw (new ProcessException("Timeout executing: "
+									+ commandMessage, ""));
+						}
+						throw e;
+					}
+					if (timedOut.get()) {
+						throw (new ProcessException("Timeout executing: "
+								+ commandMessage, out));
+					}
+					if (cancellation != null && cancellation.isCancelled()) {
+						throw (new ProcessException("Cancelled: "
+								+ commandMessage, out));
+					}
+					if (exitCode != 0) {
+						String error = "Error executing: " + commandMessage
+								+ ". With exit code = " + exitCode
+								+ " and stdout: " + out + " and stderr: "
+								+ err;
+						getLogger().severe(error);
+						String message = (stderrToStdout) ? out : err;
+						throw (new ProcessException(message, out));
+					}
+					return new String[] { out, err };
+				} catch (InterruptedException e) {
+					// future cancelled
+					kill(p);
+					throw e;
+				} finally {
+					timeout.cancel(false);
+					if (cancellation != null) {
+						cancellation.unregister(p);
+					}
+				}
+			}
+		});
+	}
 
-		String line;
-		while ((line = stdOutErr.readLine()) != null) {
-			outputBuf.append(line);
-			outputBuf.append("\n");
-			getLogger().info(line);
+	private static Callable<String> drain(final InputStream stream,
+			final boolean logOutput) {
+		return new Callable<String>() {
+			public String call() throws IOException {
+				StringBuilder buffer = new StringBuilder();
+				boolean truncated = false;
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(stream));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (logOutput) {
+							getLogger().info(line);
+						}
+						if (buffer.length() + line.length() < MAX_OUTPUT_CHARS) {
+							buffer.append(line);
+							buffer.append("\n");
+						} else {
+							truncated = true;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+				if (truncated) {
+					buffer.append(TRUNCATED);
+				}
+				return buffer.toString();
+			}
+		};
+	}
+
+	private static long remaining(long deadline) {
+		return Math.max(0, deadline - System.nanoTime());
+	}
+
+	/**
+	 * Kills the process tree and closes its streams, such that the drains
+	 * return even if a process out of reach still holds the pipes.
+	 */
+	private static void kill(Process p) {
+		killTree(p);
+		close(p.getInputStream());
+		close(p.getErrorStream());
+		try {
+			p.getOutputStream().close();
+		} catch (IOException e) {
+			// best effort
 		}
+	}
 
-		while ((line = stdErrReader.readLine()) != null) {
-			errBuf.append(line);
-			errBuf.append("\n");
-			getLogger().info(line);
+	private static void close(InputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// best effort
 		}
+	}
+
+	/**
+	 * Kills the process and all its descendants. Descendants are looked up
+	 * with pgrep, so this only goes beyond the process itself on Unix.
+	 */
+	public static void killTree(Process p) {
+		Integer pid = pid(p);
+		if (pid != null) {
+			for (Integer child : descendants(pid)) {
+				signal(child);
+			}
+		}
+		p.destroy();
+	}
 
-		// Check for failure
+	private static List<Integer> descendants(int pid) {
+		List<Integer> all = new ArrayList<Integer>();
 		try {
-			if (p.waitFor() != 0) {
-				String error = "Error executing: " + commandMessage
-						+ ". With exit code = " + p.exitValue()
-						+ " and stdout: " + outputBuf
-						+ " and stderr: " + errBuf;
-				getLogger().severe(error);
-				String message = (stderrToStdout)? outputBuf.toString() : errBuf.toString();
-				throw (new ProcessException(message, outputBuf.toString()));
+			Process pgrep = new ProcessBuilder("pgrep", "-P",
+					String.valueOf(pid)).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					pgrep.getInputStream()));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					int child = Integer.parseInt(line.trim());
+					all.addAll(descendants(child));
+					all.add(child);
+				}
+			} finally {
+				reader.close();
 			}
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-			throw (new SlipStreamInternalException(e));
-		} finally {
-			stdOutErr.close();
-			stdErrReader.close();
+			pgrep.waitFor();
+		} catch (Exception e) {
+			// best effort
+		}
+		return all;
+	}
+
+	private static void signal(int pid) {
+		try {
+			new ProcessBuilder("kill", "-9", String.valueOf(pid)).start()
+					.waitFor();
+		} catch (Exception e) {
+			// best effort
+		}
+	}
+
+	private static Integer pid(Process p) {
+		try {
+			Field field = p.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(p);
+		} catch (Exception e) {
+			return null;
 		}
+	}
+
+	private static String toMessage(String[] command) {
+		StringBuilder commandMessage = new StringBuilder();
+		for (String part : command) {
+			commandMessage.append(part).append(" ");
+		}
+		return commandMessage.toString();
+	}
 
-		return new String[]{outputBuf.toString(), errBuf.toString()};
+	private static long defaultTimeoutSeconds() {
+		try {
+			return Long.parseLong(Configuration.getInstance()
+					.getProperty(TIMEOUT_KEY,
+							String.valueOf(DEFAULT_TIMEOUT_SECONDS)).trim());
+		} catch (Exception e) {
+			return DEFAULT_TIMEOUT_SECONDS;
+		}
+	}
+
+	private static boolean isLogOutput() {
+		try {
+			return Boolean.parseBoolean(Configuration.getInstance()
+					.getProperty(LOG_OUTPUT_KEY, "true").trim());
+		} catch (Exception e) {
+			return true;
+		}
+	}
+
+	private static ThreadFactory daemonThreadFactory(final String name) {
+		final AtomicInteger counter = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
 	}
 
 	protected static Logger getLogger() {
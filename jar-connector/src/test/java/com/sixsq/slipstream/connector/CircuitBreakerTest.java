@@ -0,0 +1,202 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sixsq.slipstream.connector.CircuitBreaker.State;
+import com.sixsq.slipstream.exceptions.CircuitOpenException;
+import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.exceptions.ValidationException;
+import com.sixsq.slipstream.persistence.User;
+
+public class CircuitBreakerTest {
+
+	static class StubConnector extends ConnectorFutureTest.BlockingConnector {
+
+		final AtomicInteger calls = new AtomicInteger();
+		volatile SlipStreamException error = null;
+
+		public Properties describeInstances(User user)
+				throws SlipStreamException {
+			calls.incrementAndGet();
+			if (error != null) {
+				throw error;
+			}
+			return new Properties();
+		}
+	}
+
+	private final StubConnector connector = new StubConnector();
+
+	private static CircuitBreaker install(int failureThreshold,
+			long openMsecs, int halfOpenProbes) {
+		CircuitBreaker breaker = new CircuitBreaker("blocking",
+				failureThreshold, openMsecs, halfOpenProbes);
+		CircuitBreaker.install(breaker);
+		return breaker;
+	}
+
+	private Properties call() throws SlipStreamException {
+		return ConnectorGuard.describeInstances(connector, null);
+	}
+
+	private void tryCall(SlipStreamException error) {
+		connector.error = error;
+		try {
+			call();
+		} catch (SlipStreamException e) {
+		}
+	}
+
+	private void tryFailing() {
+		tryCall(new ServerExecutionEnginePluginException("timeout"));
+	}
+
+	private Properties succeed() throws SlipStreamException {
+		connector.error = null;
+		return call();
+	}
+
+	@After
+	public void reset() {
+		CircuitBreaker.reset();
+		RateLimiter.reset();
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() throws SlipStreamException {
+		CircuitBreaker breaker = install(3, 60000, 1);
+
+		tryFailing();
+		tryFailing();
+		assertThat(breaker.getState(), is(State.CLOSED));
+		tryFailing();
+		assertThat(breaker.getState(), is(State.OPEN));
+
+		try {
+			succeed();
+			fail();
+		} catch (CircuitOpenException e) {
+		}
+		assertThat(connector.calls.get(), is(3));
+	}
+
+	@Test
+	public void successResetsFailureCount() throws SlipStreamException {
+		CircuitBreaker breaker = install(2, 60000, 1);
+
+		tryFailing();
+		succeed();
+		tryFailing();
+
+		assertThat(breaker.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void validationErrorsDontCount() {
+		CircuitBreaker breaker = install(1, 60000, 1);
+
+		tryCall(new ValidationException("Cloud Username cannot be empty"));
+
+		assertThat(breaker.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void probeClosesOrReopens() throws Exception {
+		CircuitBreaker breaker = install(1, 10, 1);
+
+		tryFailing();
+		assertThat(breaker.getState(), is(State.OPEN));
+
+		Thread.sleep(20);
+		tryFailing();
+		assertThat(breaker.getState(), is(State.OPEN));
+
+		Thread.sleep(20);
+		succeed();
+		assertThat(breaker.getState(), is(State.CLOSED));
+		assertThat(connector.calls.get(), is(3));
+	}
+
+	@Test
+	public void halfOpenLimitsProbes() throws Exception {
+		CircuitBreaker breaker = install(1, 10, 1);
+
+		tryFailing();
+		Thread.sleep(20);
+
+		breaker.acquire();
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+		try {
+			breaker.acquire();
+			fail();
+		} catch (CircuitOpenException e) {
+		}
+		breaker.onSuccess();
+		assertThat(breaker.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void validationErrorKeepsCircuitHalfOpen() throws Exception {
+		CircuitBreaker breaker = install(1, 10, 1);
+
+		tryFailing();
+		Thread.sleep(20);
+		tryCall(new ValidationException("Cloud Username cannot be empty"));
+		assertThat(breaker.getState(), is(State.HALF_OPEN));
+
+		// the probe slot was given back
+		succeed();
+		assertThat(breaker.getState(), is(State.CLOSED));
+	}
+
+	@Test
+	public void checkDoesntTakeProbeSlot() throws Exception {
+		CircuitBreaker breaker = install(1, 10, 1);
+
+		tryFailing();
+		try {
+			breaker.check();
+			fail();
+		} catch (CircuitOpenException e) {
+		}
+
+		Thread.sleep(20);
+		breaker.check();
+		breaker.check();
+		breaker.acquire();
+		try {
+			breaker.check();
+			fail();
+		} catch (CircuitOpenException e) {
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CliCommandTest {
+
+	private CliCommand command() {
+		return new CliCommand("openstack-terminate-instances")
+				.credential("--username", "user")
+				.credential("--password", "secret")
+				.option("--instance-id", "i-1").arg("--verbose");
+	}
+
+	@Test
+	public void argvHasCredentialsAheadOfArguments() {
+		assertThat(Arrays.asList(command().toArgv("/usr/bin")),
+				is(Arrays.asList("/usr/bin/openstack-terminate-instances",
+						"--username", "user", "--password", "secret",
+						"--instance-id", "i-1", "--verbose")));
+	}
+
+	@Test
+	public void nullValuesArePassedEmpty() {
+		assertThat(Arrays.asList(new CliCommand("tool").option("--zone", null)
+				.toArgv(null)), is(Arrays.asList("tool", "--zone", "")));
+	}
+
+	@Test
+	public void toStringMasksCredentials() {
+		assertThat(command().toString(),
+				is("openstack-terminate-instances --username *** "
+						+ "--password *** --instance-id i-1 --verbose"));
+	}
+}
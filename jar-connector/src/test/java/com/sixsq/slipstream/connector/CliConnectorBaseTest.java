@@ -0,0 +1,100 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.sixsq.slipstream.connector.CliConnectorBase.TerminateBatch;
+import com.sixsq.slipstream.exceptions.SlipStreamClientException;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+
+public class CliConnectorBaseTest {
+
+	private static List<String> ids(int count) {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			ids.add("i-" + i);
+		}
+		return ids;
+	}
+
+	@Test
+	public void partition() {
+		List<List<String>> chunks = CliConnectorBase.partition(ids(5), 2);
+
+		assertThat(chunks.size(), is(3));
+		assertThat(chunks.get(0), is(Arrays.asList("i-0", "i-1")));
+		assertThat(chunks.get(2), is(Arrays.asList("i-4")));
+	}
+
+	@Test
+	public void terminatesAllInstancesInChunks() {
+		final List<List<String>> calls = Collections
+				.synchronizedList(new ArrayList<List<String>>());
+
+		Map<String, String> failures = CliConnectorBase.terminateInBatches(
+				ids(45), 20, 4, new TerminateBatch() {
+					public void terminate(List<String> instanceIds) {
+						calls.add(instanceIds);
+					}
+				});
+
+		assertThat(failures.isEmpty(), is(true));
+		assertThat(calls.size(), is(3));
+	}
+
+	@Test
+	public void reportsFailuresPerInstance() {
+		Map<String, String> failures = CliConnectorBase.terminateInBatches(
+				ids(10), 4, 2, new TerminateBatch() {
+					public void terminate(List<String> instanceIds)
+							throws SlipStreamException {
+						if (instanceIds.contains("i-5")) {
+							throw new SlipStreamClientException("not found");
+						}
+					}
+				});
+
+		assertThat(failures.size(), is(1));
+		assertThat(failures.get("i-5"), is("not found"));
+	}
+
+	@Test
+	public void noInstances() {
+		Map<String, String> failures = CliConnectorBase.terminateInBatches(
+				new ArrayList<String>(), 20, 4, new TerminateBatch() {
+					public void terminate(List<String> instanceIds) {
+						throw new IllegalStateException();
+					}
+				});
+
+		assertThat(failures.isEmpty(), is(true));
+	}
+}
@@ -21,14 +21,64 @@ package com.sixsq.slipstream.connector;
  */
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
 import org.junit.Test;
 
+import com.sixsq.slipstream.connector.local.LocalConnector;
+import com.sixsq.slipstream.connector.stratuslab.StratusLabConnector;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+
 public class ConnectorFactoryTest {
 
 	@Test
 	public void splitConnectorClassNames() {
 		assertThat(ConnectorFactory.splitConnectorClassNames(null), is(new String[0]));
 	}
+
+	@After
+	public void tearDown() {
+		ConnectorFactory.resetConnectors();
+	}
+
+	@Test
+	public void statelessConnectorsAreShared() throws SlipStreamException {
+		Map<String, Connector> connectors = new LinkedHashMap<String, Connector>();
+		Connector local = new LocalConnector();
+		Connector stratuslab = new StratusLabConnector();
+		connectors.put(local.getConnectorInstanceName(), local);
+		connectors.put(stratuslab.getConnectorInstanceName(), stratuslab);
+		ConnectorFactory.setConnectors(connectors);
+
+		assertThat(ConnectorFactory.getConnector("local"), sameInstance(local));
+		assertThat(ConnectorFactory.getConnector("stratuslab"),
+				not(sameInstance(stratuslab)));
+	}
+
+	@Test
+	public void cloudServiceNamesFollowRegistry() throws SlipStreamException {
+		Map<String, Connector> connectors = new LinkedHashMap<String, Connector>();
+		connectors.put("local", new LocalConnector());
+		connectors.put("other", new LocalConnector("other"));
+		ConnectorFactory.setConnectors(connectors);
+
+		assertThat(ConnectorFactory.getCloudServiceNamesList(),
+				is(Arrays.asList("local", "other")));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void registryIsImmutable() throws SlipStreamException {
+		Map<String, Connector> connectors = new LinkedHashMap<String, Connector>();
+		connectors.put("local", new LocalConnector());
+		ConnectorFactory.setConnectors(connectors);
+
+		ConnectorFactory.getConnectors().put("other", new LocalConnector());
+	}
 }
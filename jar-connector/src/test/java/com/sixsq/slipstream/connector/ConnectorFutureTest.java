@@ -0,0 +1,183 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.sixsq.slipstream.credentials.Credentials;
+import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.persistence.Run;
+import com.sixsq.slipstream.persistence.User;
+
+public class ConnectorFutureTest {
+
+	static class BlockingConnector extends ConnectorBase {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicReference<String> thread = new AtomicReference<String>();
+
+		BlockingConnector() {
+			super("blocking");
+		}
+
+		public String getCloudServiceName() {
+			return "blocking";
+		}
+
+		public Run launch(Run run, User user) throws SlipStreamException {
+			return run;
+		}
+
+		public Credentials getCredentials(User user) {
+			return null;
+		}
+
+		public void terminate(Run run, User user) throws SlipStreamException {
+			throw new ServerExecutionEnginePluginException("terminate failed");
+		}
+
+		public Properties describeInstances(User user)
+				throws SlipStreamException {
+			thread.set(Thread.currentThread().getName());
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+			Properties properties = new Properties();
+			properties.put("i-1", "Running");
+			return properties;
+		}
+
+		public Connector copy() {
+			return new BlockingConnector();
+		}
+
+		protected String constructKey(String key) {
+			return "blocking." + key;
+		}
+	}
+
+	@Test
+	public void listenersRunOnceCompleted() {
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable listener = new Runnable() {
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+		ConnectorFuture<String> future = new ConnectorFuture<String>();
+
+		future.addListener(listener);
+		assertThat(runs.get(), is(0));
+
+		assertThat(future.set("done"), is(true));
+		assertThat(runs.get(), is(1));
+
+		future.addListener(listener);
+		assertThat(runs.get(), is(2));
+	}
+
+	@Test
+	public void failingListenerDoesntSkipTheOthers() {
+		final AtomicInteger runs = new AtomicInteger();
+		ConnectorFuture<String> future = new ConnectorFuture<String>();
+
+		future.addListener(new Runnable() {
+			public void run() {
+				throw new IllegalStateException("boom");
+			}
+		});
+		future.addListener(new Runnable() {
+			public void run() {
+				runs.incrementAndGet();
+			}
+		});
+
+		assertThat(future.set("done"), is(true));
+		assertThat(runs.get(), is(1));
+	}
+
+	@Test
+	public void completesOnlyOnce() throws Exception {
+		ConnectorFuture<String> future = new ConnectorFuture<String>();
+
+		assertThat(future.set("first"), is(true));
+		assertThat(future.set("second"), is(false));
+		assertThat(future.setException(new RuntimeException()), is(false));
+		assertThat(future.cancel(true), is(false));
+
+		assertThat(future.get(), is("first"));
+	}
+
+	@Test
+	public void failureIsWrapped() throws InterruptedException {
+		ConnectorFuture<String> future = ConnectorFuture
+				.failed(new ServerExecutionEnginePluginException("boom"));
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(),
+					instanceOf(ServerExecutionEnginePluginException.class));
+		}
+	}
+
+	@Test
+	public void defaultAdaptersDontBlockTheCaller() throws Exception {
+		BlockingConnector connector = new BlockingConnector();
+
+		ConnectorFuture<Properties> future = connector
+				.describeInstancesAsync(null);
+		assertThat(future.isDone(), is(false));
+
+		connector.release.countDown();
+		assertThat(future.get(10, TimeUnit.SECONDS).getProperty("i-1"),
+				is("Running"));
+		assertThat(connector.thread.get(), startsWith("connector-blocking-"));
+	}
+
+	@Test
+	public void defaultAdaptersReportFailures() throws InterruptedException {
+		ConnectorFuture<Void> future = new BlockingConnector().terminateAsync(
+				null, null);
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), is("terminate failed"));
+		}
+	}
+
+}
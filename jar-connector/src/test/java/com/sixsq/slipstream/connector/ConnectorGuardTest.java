@@ -0,0 +1,83 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sixsq.slipstream.connector.CircuitBreaker.State;
+import com.sixsq.slipstream.exceptions.CircuitOpenException;
+import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+import com.sixsq.slipstream.persistence.User;
+
+public class ConnectorGuardTest {
+
+	static class FailingConnector extends ConnectorFutureTest.BlockingConnector {
+
+		final AtomicInteger calls = new AtomicInteger();
+
+		public Properties describeInstances(User user)
+				throws SlipStreamException {
+			calls.incrementAndGet();
+			throw new ServerExecutionEnginePluginException("cloud down");
+		}
+	}
+
+	@After
+	public void reset() {
+		CircuitBreaker.reset();
+		RateLimiter.reset();
+	}
+
+	@Test
+	public void asyncCallsGoThroughTheCircuitBreaker() {
+		FailingConnector connector = new FailingConnector();
+
+		for (int i = 0; i < 5; i++) {
+			try {
+				ConnectorGuard.await(ConnectorGuard.describeInstancesAsync(
+						connector, null));
+				fail();
+			} catch (SlipStreamException e) {
+				assertThat(e.getMessage(), is("cloud down"));
+			}
+		}
+		assertThat(CircuitBreaker.getState("blocking"), is(State.OPEN));
+
+		try {
+			ConnectorGuard.describeInstances(connector, null);
+			fail();
+		} catch (CircuitOpenException e) {
+		} catch (SlipStreamException e) {
+			fail();
+		}
+		assertThat(connector.calls.get(), is(5));
+	}
+
+}
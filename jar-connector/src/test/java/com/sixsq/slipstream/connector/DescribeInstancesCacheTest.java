@@ -0,0 +1,197 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sixsq.slipstream.exceptions.SlipStreamClientException;
+import com.sixsq.slipstream.exceptions.SlipStreamException;
+
+public class DescribeInstancesCacheTest {
+
+	private static class CountingLoader implements Callable<Properties> {
+
+		final AtomicInteger calls = new AtomicInteger();
+
+		public Properties call() throws Exception {
+			Properties props = new Properties();
+			props.put("i-" + calls.incrementAndGet(), "running");
+			return props;
+		}
+	}
+
+	@Test
+	public void reusesResultWithinStaleness() throws SlipStreamException {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		CountingLoader loader = new CountingLoader();
+
+		cache.get("cloud\nkey", 60000, loader);
+		Properties props = cache.get("cloud\nkey", 60000, loader);
+
+		assertThat(loader.calls.get(), is(1));
+		assertThat(props.getProperty("i-1"), is("running"));
+	}
+
+	@Test
+	public void refreshesWhenTooStale() throws Exception {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		CountingLoader loader = new CountingLoader();
+
+		cache.get("cloud\nkey", 60000, loader);
+		Thread.sleep(5);
+		Properties props = cache.get("cloud\nkey", 0, loader);
+
+		assertThat(loader.calls.get(), is(2));
+		assertThat(props.getProperty("i-2"), is("running"));
+	}
+
+	@Test
+	public void keysAreIndependent() throws SlipStreamException {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		CountingLoader loader = new CountingLoader();
+
+		cache.get("cloud\nalice", 60000, loader);
+		cache.get("cloud\nbob", 60000, loader);
+
+		assertThat(loader.calls.get(), is(2));
+		assertThat(cache.size(), is(2));
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentCallersShareOneRequest() throws Exception {
+		final DescribeInstancesCache cache = new DescribeInstancesCache();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final Callable<Properties> slowLoader = new Callable<Properties>() {
+			public Properties call() throws Exception {
+				calls.incrementAndGet();
+				release.await();
+				return new Properties();
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Properties>> futures = new ArrayList<Future<Properties>>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(new Callable<Properties>() {
+					public Properties call() throws SlipStreamException {
+						return cache.get("cloud\nkey", 0, slowLoader);
+					}
+				}));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<Properties> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(calls.get(), is(1));
+	}
+
+	@Test
+	public void failuresAreNotCached() throws SlipStreamException {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		try {
+			cache.get("cloud\nkey", 60000, new Callable<Properties>() {
+				public Properties call() throws SlipStreamException {
+					throw new SlipStreamClientException("unreachable");
+				}
+			});
+			fail();
+		} catch (SlipStreamClientException e) {
+		}
+
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void invalidatedKeyIsFetchedAgain() throws SlipStreamException {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		CountingLoader loader = new CountingLoader();
+
+		cache.get("cloud\nalice", 60000, loader);
+		cache.get("cloud\nbob", 60000, loader);
+		cache.invalidate("cloud\nalice");
+		cache.get("cloud\nalice", 60000, loader);
+		cache.get("cloud\nbob", 60000, loader);
+
+		assertThat(loader.calls.get(), is(3));
+	}
+
+	@Test
+	public void expiredEntriesAreEvicted() throws Exception {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		CountingLoader loader = new CountingLoader();
+
+		cache.get("cloud\nalice", 60000, loader);
+		Thread.sleep(20);
+		cache.get("cloud\nbob", 60000, loader);
+		cache.evictExpired(10);
+
+		assertThat(cache.size(), is(1));
+	}
+
+	@Test
+	public void asyncCallersShareTheRequestInFlight() throws Exception {
+		DescribeInstancesCache cache = new DescribeInstancesCache();
+		final ConnectorFuture<Properties> loaded = new ConnectorFuture<Properties>();
+		final AtomicInteger calls = new AtomicInteger();
+		DescribeInstancesCache.Loader loader = new DescribeInstancesCache.Loader() {
+			public ConnectorFuture<Properties> load() {
+				calls.incrementAndGet();
+				return loaded;
+			}
+		};
+
+		ConnectorFuture<Properties> first = cache.getAsync("cloud\nkey", 0,
+				loader);
+		ConnectorFuture<Properties> second = cache.getAsync("cloud\nkey", 0,
+				loader);
+		assertThat(first.isDone(), is(false));
+		assertThat(second.isDone(), is(false));
+
+		Properties props = new Properties();
+		props.put("i-1", "running");
+		loaded.set(props);
+
+		assertThat(calls.get(), is(1));
+		assertThat(first.get().getProperty("i-1"), is("running"));
+		assertThat(second.get().getProperty("i-1"), is("running"));
+	}
+}
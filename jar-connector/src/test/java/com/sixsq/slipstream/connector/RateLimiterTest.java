@@ -0,0 +1,161 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sixsq.slipstream.connector.RateLimiter.Bucket;
+import com.sixsq.slipstream.connector.RateLimiter.Operation;
+
+public class RateLimiterTest {
+
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor();
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+		RateLimiter.reset();
+	}
+
+	private static Runnable record(final List<String> granted,
+			final String name, final CountDownLatch latch) {
+		return new Runnable() {
+			public void run() {
+				granted.add(name);
+				latch.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void unlimitedGrantsImmediately() {
+		Bucket bucket = new Bucket("cloud.read", 0, 1, scheduler);
+		List<String> granted = new ArrayList<String>();
+		CountDownLatch latch = new CountDownLatch(3);
+
+		for (int i = 0; i < 3; i++) {
+			bucket.acquire(0, record(granted, "call" + i, latch));
+		}
+
+		assertThat(granted.size(), is(3));
+	}
+
+	@Test(timeout = 10000)
+	public void burstThenThrottled() throws InterruptedException {
+		Bucket bucket = new Bucket("cloud.write", 10, 2, scheduler);
+		List<String> granted = Collections
+				.synchronizedList(new ArrayList<String>());
+		CountDownLatch latch = new CountDownLatch(3);
+
+		long begin = System.currentTimeMillis();
+		bucket.acquire(0, record(granted, "a", latch));
+		bucket.acquire(0, record(granted, "b", latch));
+		bucket.acquire(0, record(granted, "c", latch));
+
+		assertThat(granted, is(Arrays.asList("a", "b")));
+		assertThat(bucket.getWaiting(), is(1));
+
+		latch.await(5, TimeUnit.SECONDS);
+		assertThat(granted, is(Arrays.asList("a", "b", "c")));
+		assertThat(System.currentTimeMillis() - begin >= 50, is(true));
+	}
+
+	@Test(timeout = 10000)
+	public void launchesServedFirst() throws InterruptedException {
+		Bucket bucket = new Bucket("cloud.write", 20, 1, scheduler);
+		List<String> granted = Collections
+				.synchronizedList(new ArrayList<String>());
+		CountDownLatch latch = new CountDownLatch(4);
+
+		bucket.acquire(1, record(granted, "terminate1", latch));
+		bucket.acquire(1, record(granted, "terminate2", latch));
+		bucket.acquire(1, record(granted, "terminate3", latch));
+		bucket.acquire(0, record(granted, "launch", latch));
+
+		latch.await(5, TimeUnit.SECONDS);
+		assertThat(granted, is(Arrays.asList("terminate1", "launch",
+				"terminate2", "terminate3")));
+	}
+
+	@Test(timeout = 10000)
+	public void failingCallbackDoesntDropTheOthers()
+			throws InterruptedException {
+		Bucket bucket = new Bucket("cloud.write", 100, 2, scheduler);
+		List<String> granted = Collections
+				.synchronizedList(new ArrayList<String>());
+		CountDownLatch latch = new CountDownLatch(3);
+
+		bucket.acquire(0, record(granted, "a", latch));
+		bucket.acquire(0, record(granted, "b", latch));
+		bucket.acquire(0, new Runnable() {
+			public void run() {
+				throw new IllegalStateException("boom");
+			}
+		});
+		bucket.acquire(0, record(granted, "c", latch));
+
+		latch.await(5, TimeUnit.SECONDS);
+		assertThat(granted, is(Arrays.asList("a", "b", "c")));
+	}
+
+	@Test
+	public void operationsKinds() {
+		assertThat(Operation.LAUNCH.isWrite(), is(true));
+		assertThat(Operation.TERMINATE.isWrite(), is(true));
+		assertThat(Operation.DESCRIBE.isWrite(), is(false));
+	}
+
+	@Test
+	public void idleBucketsAreEvicted() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(2);
+		Runnable granted = new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		};
+
+		RateLimiter.acquire("cloud\ncredentials", Operation.DESCRIBE, granted);
+		RateLimiter.evictIdle(60000);
+		assertThat(RateLimiter.size(), is(1));
+
+		Thread.sleep(20);
+		RateLimiter.evictIdle(10);
+		assertThat(RateLimiter.size(), is(0));
+
+		RateLimiter.acquire("cloud\ncredentials", Operation.DESCRIBE, granted);
+		assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(RateLimiter.size(), is(1));
+	}
+}
@@ -0,0 +1,127 @@
+package com.sixsq.slipstream.connector;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sixsq.slipstream.exceptions.ProcessException;
+
+public class WorkerPoolTest {
+
+	private String[] workerCommand;
+	private WorkerPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		String stub = new File(getClass().getResource(
+				"/stub-connector-worker.sh").toURI()).getAbsolutePath();
+		workerCommand = new String[] { "sh", stub };
+		pool = new WorkerPool(workerCommand, 2, 3, 10);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+	}
+
+	private static CliCommand shell(String script) {
+		return new CliCommand("sh").arg("-c", script);
+	}
+
+	@Test
+	public void execReturnsOutputAndReusesWorker() throws IOException {
+		String[] result = pool.exec(shell("echo hello; echo oops >&2"),
+				false);
+
+		assertThat(result[0], is("hello\n"));
+		assertThat(result[1], is("oops\n"));
+		assertThat(pool.getIdle(), is(1));
+
+		assertThat(pool.exec(shell("echo again"), true)[0], is("again\n"));
+		assertThat(pool.getIdle(), is(1));
+	}
+
+	@Test
+	public void stderrToStdout() throws IOException {
+		assertThat(pool.exec(shell("echo out; echo err >&2"), true)[0],
+				is("out\nerr\n"));
+	}
+
+	@Test(expected = ProcessException.class)
+	public void nonZeroExitCodeFails() throws IOException {
+		pool.exec(shell("exit 3"), true);
+	}
+
+	@Test
+	public void workerRecycledAfterMaxRequests() throws IOException {
+		pool.exec(shell("true"), true);
+		pool.exec(shell("true"), true);
+		pool.exec(shell("true"), true);
+
+		assertThat(pool.getIdle(), is(0));
+
+		assertThat(pool.exec(shell("echo fresh"), true)[0], is("fresh\n"));
+	}
+
+	@Test(timeout = 30000)
+	public void timeoutDestroysWorker() throws IOException {
+		WorkerPool quick = new WorkerPool(workerCommand, 1, 10, 1);
+		try {
+			try {
+				quick.exec(shell("sleep 20"), true);
+				fail();
+			} catch (ProcessException e) {
+				assertThat(quick.getIdle(), is(0));
+			}
+			assertThat(quick.exec(shell("echo alive"), true)[0],
+					is("alive\n"));
+		} finally {
+			quick.close();
+		}
+	}
+
+	@Test
+	public void argumentsArePassedAsIs() throws IOException {
+		CliCommand command = new CliCommand("printf").arg("%s|", "a b",
+				"it's", "", "$HOME");
+
+		assertThat(pool.exec(command, true)[0], is("a b|it's||$HOME|"));
+	}
+
+	@Test
+	public void credentialsAreSentApartFromArguments() throws IOException {
+		CliCommand command = shell("echo \"$CREDENTIAL_password\" $#")
+				.credential("--password", "s3cr3t pass");
+
+		assertThat(WorkerPool.toRequest(command).contains("s3cr3t"),
+				is(false));
+		assertThat(pool.exec(command, true)[0], is("s3cr3t pass 0\n"));
+	}
+}
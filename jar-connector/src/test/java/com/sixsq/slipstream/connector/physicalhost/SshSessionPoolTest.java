@@ -0,0 +1,165 @@
+package com.sixsq.slipstream.connector.physicalhost;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jcraft.jsch.JSchException;
+import com.sixsq.slipstream.connector.physicalhost.SshSessionPool.SshConnector;
+import com.sixsq.slipstream.connector.physicalhost.SshSessionPool.SshSession;
+
+public class SshSessionPoolTest {
+
+	private static class FakeSession implements SshSession {
+
+		boolean connected = true;
+		boolean disconnected = false;
+		int failures = 0;
+		boolean dropOnFailure = false;
+
+		public boolean isConnected() {
+			return connected;
+		}
+
+		public int exec(String command) throws JSchException {
+			if (failures > 0) {
+				failures--;
+				connected = !dropOnFailure;
+				throw new JSchException("broken");
+			}
+			return 0;
+		}
+
+		public void disconnect() {
+			connected = false;
+			disconnected = true;
+		}
+	}
+
+	private static class FakeConnector implements SshConnector {
+
+		final List<FakeSession> sessions = new ArrayList<FakeSession>();
+		final List<FakeSession> next = new ArrayList<FakeSession>();
+
+		public SshSession connect(String user, String privateKey,
+				String password, String host, int port) {
+			FakeSession session = next.isEmpty() ? new FakeSession() : next
+					.remove(0);
+			sessions.add(session);
+			return session;
+		}
+	}
+
+	@Test
+	public void reusesSessionOfSameCredentials() throws Exception {
+		FakeConnector connector = new FakeConnector();
+		SshSessionPool pool = new SshSessionPool(4, connector);
+
+		pool.exec("root", "key", "pass", "host", 22, "true");
+		pool.exec("root", "key", "pass", "host", 22, "true");
+
+		assertThat(connector.sessions.size(), is(1));
+		assertThat(pool.size(), is(1));
+	}
+
+	@Test
+	public void credentialsWithSameHashCodeDontShareSession()
+			throws Exception {
+		FakeConnector connector = new FakeConnector();
+		SshSessionPool pool = new SshSessionPool(4, connector);
+
+		// "Aa" and "BB" have the same String hash code
+		pool.exec("root", "key", "Aa", "host", 22, "true");
+		pool.exec("root", "key", "BB", "host", 22, "true");
+
+		assertThat(connector.sessions.size(), is(2));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedWhenFull() throws Exception {
+		FakeConnector connector = new FakeConnector();
+		SshSessionPool pool = new SshSessionPool(1, connector);
+
+		pool.exec("root", "key", "pass", "host1", 22, "true");
+		pool.exec("root", "key", "pass", "host2", 22, "true");
+
+		assertThat(pool.size(), is(1));
+		assertThat(connector.sessions.get(0).disconnected, is(true));
+		assertThat(connector.sessions.get(1).disconnected, is(false));
+	}
+
+	@Test
+	public void evictsDisconnectedIdleSessions() throws Exception {
+		FakeConnector connector = new FakeConnector();
+		SshSessionPool pool = new SshSessionPool(4, connector);
+
+		pool.exec("root", "key", "pass", "host1", 22, "true");
+		connector.sessions.get(0).connected = false;
+		pool.exec("root", "key", "pass", "host2", 22, "true");
+
+		assertThat(pool.size(), is(1));
+	}
+
+	@Test
+	public void reconnectsOnceWhenSessionDropped() throws Exception {
+		FakeConnector connector = new FakeConnector();
+		SshSessionPool pool = new SshSessionPool(4, connector);
+		FakeSession stale = new FakeSession();
+		stale.failures = 1;
+		stale.dropOnFailure = true;
+		connector.next.add(stale);
+
+		assertThat(pool.exec("root", "key", "pass", "host", 22, "true"),
+				is(0));
+
+		assertThat(connector.sessions.size(), is(2));
+		assertThat(stale.disconnected, is(true));
+		assertThat(pool.size(), is(1));
+	}
+
+	@Test
+	public void releasesSessionAfterFailure() throws Exception {
+		FakeConnector connector = new FakeConnector();
+		SshSessionPool pool = new SshSessionPool(4, connector);
+		FakeSession failing = new FakeSession();
+		failing.failures = 1;
+		connector.next.add(failing);
+
+		try {
+			pool.exec("root", "key", "pass", "host", 22, "true");
+			fail();
+		} catch (JSchException e) {
+		}
+
+		assertThat(failing.disconnected, is(true));
+		assertThat(pool.size(), is(0));
+
+		pool.exec("root", "key", "pass", "host", 22, "true");
+		assertThat(connector.sessions.size(), is(2));
+	}
+}
@@ -0,0 +1,90 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyDistributionTest {
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void fixed() {
+		assertThat(LatencyDistribution.parse("fixed:120").sample(random),
+				is(120L));
+	}
+
+	@Test
+	public void emptyMeansNoLatency() {
+		assertThat(LatencyDistribution.parse("  ").sample(random), is(0L));
+		assertThat(LatencyDistribution.parse(null).sample(random), is(0L));
+	}
+
+	@Test
+	public void uniformStaysWithinBounds() {
+		LatencyDistribution latency = LatencyDistribution
+				.parse("uniform:100:200");
+		for (int i = 0; i < 1000; i++) {
+			long sample = latency.sample(random);
+			assertThat(sample >= 100 && sample <= 200, is(true));
+		}
+	}
+
+	@Test
+	public void exponentialHasTheConfiguredMean() {
+		LatencyDistribution latency = LatencyDistribution
+				.parse("exponential:200");
+		long total = 0;
+		for (int i = 0; i < 10000; i++) {
+			total += latency.sample(random);
+		}
+		assertThat(Math.abs(total / 10000.0 - 200) < 20, is(true));
+	}
+
+	@Test
+	public void normalIsNeverNegative() {
+		LatencyDistribution latency = LatencyDistribution.parse("normal:10:50");
+		for (int i = 0; i < 1000; i++) {
+			assertThat(latency.sample(random) >= 0, is(true));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownDistribution() {
+		LatencyDistribution.parse("gamma:1:2");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingParameter() {
+		LatencyDistribution.parse("uniform:100");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidParameter() {
+		LatencyDistribution.parse("fixed:fast");
+	}
+
+}
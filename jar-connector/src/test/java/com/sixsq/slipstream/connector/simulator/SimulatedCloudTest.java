@@ -0,0 +1,141 @@
+package com.sixsq.slipstream.connector.simulator;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sixsq.slipstream.exceptions.ServerExecutionEnginePluginException;
+
+public class SimulatedCloudTest {
+
+	private final SimulatedCloud.Settings settings = new SimulatedCloud.Settings();
+
+	private SimulatedCloud cloud() {
+		SimulatedCloud cloud = new SimulatedCloud("sim");
+		cloud.setSettings(settings);
+		return cloud;
+	}
+
+	@After
+	public void reset() {
+		SimulatedCloud.reset();
+	}
+
+	@Test
+	public void launchedInstancesAreDescribedUntilTerminated()
+			throws ServerExecutionEnginePluginException {
+		SimulatedCloud cloud = cloud();
+
+		SimulatedCloud.Instance first = cloud.runInstance("alice");
+		SimulatedCloud.Instance second = cloud.runInstance("alice");
+		cloud.runInstance("bob");
+
+		Properties states = cloud.describeInstances("alice");
+		assertThat(states.size(), is(2));
+		assertThat(states.getProperty(first.getId()),
+				is(SimulatedCloud.RUNNING));
+
+		cloud.terminateInstances("alice",
+				Arrays.asList(first.getId(), "unknown"));
+
+		states = cloud.describeInstances("alice");
+		assertThat(states.size(), is(1));
+		assertThat(states.getProperty(second.getId()),
+				is(SimulatedCloud.RUNNING));
+		assertThat(cloud.size(), is(2));
+	}
+
+	@Test
+	public void instancesArePendingWhileBooting()
+			throws ServerExecutionEnginePluginException {
+		settings.bootMsecs = 60000;
+		SimulatedCloud cloud = cloud();
+
+		SimulatedCloud.Instance instance = cloud.runInstance("alice");
+
+		assertThat(cloud.describeInstances("alice").getProperty(
+				instance.getId()), is(SimulatedCloud.PENDING));
+	}
+
+	@Test
+	public void accountsStartWithBackgroundFleet()
+			throws ServerExecutionEnginePluginException {
+		settings.fleetSize = 5000;
+		SimulatedCloud cloud = cloud();
+
+		cloud.runInstance("alice");
+
+		assertThat(cloud.describeInstances("alice").size(), is(5001));
+		assertThat(cloud.describeInstances("bob").size(), is(5000));
+		assertThat(cloud.size(), is(10001));
+	}
+
+	@Test
+	public void failsAtFailureRate() {
+		settings.failureRate = 1;
+		SimulatedCloud cloud = cloud();
+
+		try {
+			cloud.runInstance("alice");
+			fail();
+		} catch (ServerExecutionEnginePluginException e) {
+		}
+		assertThat(cloud.size(), is(0));
+	}
+
+	@Test
+	public void rejectsCallsAboveThrottleRate()
+			throws ServerExecutionEnginePluginException {
+		settings.throttleRate = 2;
+		SimulatedCloud cloud = cloud();
+
+		cloud.describeInstances("alice");
+		cloud.describeInstances("alice");
+		try {
+			cloud.describeInstances("alice");
+			fail();
+		} catch (ServerExecutionEnginePluginException e) {
+			assertThat(e.getMessage().startsWith("RequestLimitExceeded"),
+					is(true));
+		}
+	}
+
+	@Test
+	public void callsTakeTheConfiguredLatency()
+			throws ServerExecutionEnginePluginException {
+		settings.describeLatency = LatencyDistribution.parse("fixed:50");
+		SimulatedCloud cloud = cloud();
+
+		long start = System.currentTimeMillis();
+		cloud.describeInstances("alice");
+
+		assertThat(System.currentTimeMillis() - start >= 50, is(true));
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.sixsq.slipstream.measurements;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GraphitePublisherTest {
+
+	private static Measurement measurement(String user, String cloud,
+			String vmstate, String instanceId) {
+		Measurement m = new Measurement();
+		m.setUser(user);
+		m.setCloud(cloud);
+		m.setVmState(vmstate);
+		m.setInstanceId(instanceId);
+		m.setCpu(2);
+		m.setRam(4);
+		m.setStorage(100);
+		return m;
+	}
+
+	@Test
+	public void toLinesAggregatesPerUserAndCloud() {
+		List<Measurement> measurements = new ArrayList<Measurement>();
+		measurements.add(measurement("u1", "c1", "Running", "i-1"));
+		measurements.add(measurement("u1", "c1", "running", "i-2"));
+		measurements.add(measurement("u1", "c1", "running", "Unknown"));
+		measurements.add(measurement("u1", "c1", "terminated", "i-3"));
+
+		List<String> lines = GraphitePublisher.toLines(measurements, 123);
+
+		assertThat(lines.size(), is(4));
+		assertThat(lines, hasItem("slipstream.u1.usage.vcpus.c1 4 123"));
+		assertThat(lines, hasItem("slipstream.u1.usage.disk.c1 200 123"));
+		assertThat(lines, hasItem("slipstream.u1.usage.instance.c1 2 123"));
+		assertThat(lines, hasItem("slipstream.u1.usage.memory.c1 8 123"));
+	}
+
+	@Test(timeout = 10000)
+	public void flushWritesBatchToSocket() throws IOException {
+		ServerSocket server = new ServerSocket(0);
+		GraphitePublisher publisher = new GraphitePublisher("localhost",
+				server.getLocalPort(), 100);
+		try {
+			List<Measurement> measurements = new ArrayList<Measurement>();
+			measurements.add(measurement("u1", "c1", "running", "i-1"));
+			measurements.add(measurement("u2", "c1", "running", "i-2"));
+			publisher.publish(measurements);
+
+			assertThat(publisher.flush(), is(8));
+			assertThat(publisher.getBuffered(), is(0));
+
+			Socket client = server.accept();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					client.getInputStream()));
+			List<String> received = new ArrayList<String>();
+			for (int i = 0; i < 8; i++) {
+				received.add(reader.readLine().replaceAll(" [0-9]+$", ""));
+			}
+			assertThat(received, hasItem("slipstream.u1.usage.vcpus.c1 2"));
+			assertThat(received, hasItem("slipstream.u2.usage.memory.c1 4"));
+			client.close();
+		} finally {
+			publisher.close();
+			server.close();
+		}
+	}
+
+	@Test
+	public void pointsStayBufferedWhenCarbonIsDown() throws IOException {
+		ServerSocket server = new ServerSocket(0);
+		int port = server.getLocalPort();
+		server.close();
+
+		GraphitePublisher publisher = new GraphitePublisher("localhost", port,
+				6);
+		List<Measurement> measurements = new ArrayList<Measurement>();
+		measurements.add(measurement("u1", "c1", "running", "i-1"));
+		measurements.add(measurement("u2", "c1", "running", "i-2"));
+		publisher.publish(measurements);
+
+		assertThat(publisher.flush(), is(0));
+		assertThat(publisher.getBuffered(), is(6));
+		assertThat(publisher.getDropped(), is(2L));
+	}
+
+	@Test
+	public void pointsStayBufferedOnUnexpectedFailure() {
+		// an invalid port fails with an IllegalArgumentException
+		GraphitePublisher publisher = new GraphitePublisher("localhost",
+				70000, 10);
+		List<Measurement> measurements = new ArrayList<Measurement>();
+		measurements.add(measurement("u1", "c1", "running", "i-1"));
+		publisher.publish(measurements);
+		int buffered = publisher.getBuffered();
+
+		assertThat(publisher.flush(), is(0));
+		assertThat(publisher.getBuffered(), is(buffered));
+	}
+}
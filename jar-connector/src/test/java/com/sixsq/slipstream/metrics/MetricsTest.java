@@ -0,0 +1,73 @@
+package com.sixsq.slipstream.metrics;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@After
+	public void tearDown() {
+		Metrics.reset();
+	}
+
+	@Test
+	public void countersAndGauges() {
+		Metrics.increment("launch_requested");
+		Metrics.increment("launch_requested", 2);
+		Metrics.setGauge("launch_queue_depth", 7);
+
+		assertThat(Metrics.getCounter("launch_requested"), is(3L));
+		assertThat(Metrics.getGauge("launch_queue_depth"), is(7L));
+
+		String text = Metrics.toText();
+		assertThat(text, containsString("slipstream_launch_requested 3\n"));
+		assertThat(text, containsString("slipstream_launch_queue_depth 7\n"));
+	}
+
+	@Test
+	public void histogramWithLabels() {
+		Metrics.record("collect_duration_ms{connector=\"c1\"}", 40);
+		Metrics.record("collect_duration_ms{connector=\"c1\"}", 400);
+
+		Metrics.Histogram histogram = Metrics
+				.getHistogram("collect_duration_ms{connector=\"c1\"}");
+		assertThat(histogram.getCount(), is(2L));
+		assertThat(histogram.getSum(), is(440L));
+		assertThat(histogram.getMax(), is(400L));
+
+		String text = Metrics.toText();
+		assertThat(
+				text,
+				containsString("slipstream_collect_duration_ms_bucket{connector=\"c1\",le=\"50\"} 1\n"));
+		assertThat(
+				text,
+				containsString("slipstream_collect_duration_ms_bucket{connector=\"c1\",le=\"500\"} 2\n"));
+		assertThat(
+				text,
+				containsString("slipstream_collect_duration_ms_count{connector=\"c1\"} 2\n"));
+	}
+}
@@ -30,6 +30,7 @@ import static org.junit.Assert.assertThat;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -382,6 +383,47 @@ public class RunTest extends RunTestBase {
 		assertEquals("v2", run.getRuntimeParameterValue("node.1:k2"));
 	}
 
+	@Test
+	public void loadRunUuidsByInstanceIds() throws SlipStreamException,
+			FileNotFoundException, IOException {
+
+		Run run = RunFactory.getRun(image, RunType.Run, cloudServiceName, user);
+
+		run.assignRuntimeParameter("node.1:instanceid", "bulk-instance-1",
+				"id desc");
+		run.assignRuntimeParameter("node.2:instanceid", "bulk-instance-2",
+				"id desc");
+		run = run.store();
+
+		List<String> instanceIds = new ArrayList<String>();
+		instanceIds.add("bulk-instance-1");
+		instanceIds.add("bulk-instance-2");
+		instanceIds.add("bulk-instance-unknown");
+
+		Map<String, String> uuids = Run.loadRunUuidsByInstanceIds(
+				user.getName(), instanceIds);
+
+		assertThat(uuids.size(), is(2));
+		assertThat(uuids.get("bulk-instance-1"), is(run.getUuid()));
+		assertThat(uuids.get("bulk-instance-2"), is(run.getUuid()));
+		assertNull(uuids.get("bulk-instance-unknown"));
+
+		run.remove();
+	}
+
+	@Test
+	public void listUsersWithActiveRuns() throws SlipStreamException,
+			FileNotFoundException, IOException {
+
+		Run run = RunFactory.getRun(image, RunType.Run, cloudServiceName, user);
+		run = run.store();
+
+		assertThat(Run.listUsersWithActiveRuns().contains(user.getName()),
+				is(true));
+
+		run.remove();
+	}
+
 	@Test(expected = NotFoundException.class)
 	public void setInexistantRuntimeParameter() throws SlipStreamException,
 			InstantiationException, IllegalAccessException,
@@ -0,0 +1,80 @@
+package com.sixsq.slipstream.util;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.sixsq.slipstream.exceptions.ProcessException;
+
+public class CancellationTest {
+
+	@Test
+	public void completedCannotBeCancelled() {
+		Cancellation cancellation = new Cancellation();
+
+		assertThat(cancellation.complete(), is(true));
+		assertThat(cancellation.cancel(), is(false));
+		assertThat(cancellation.isCancelled(), is(false));
+	}
+
+	@Test
+	public void cancelledCannotComplete() {
+		Cancellation cancellation = new Cancellation();
+
+		assertThat(cancellation.cancel(), is(true));
+		assertThat(cancellation.complete(), is(false));
+		assertThat(cancellation.isCancelled(), is(true));
+	}
+
+	@Test(timeout = 10000)
+	public void cancelDestroysProcess() throws Exception {
+		final Cancellation cancellation = new Cancellation();
+
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+				}
+				cancellation.cancel();
+			}
+		}.start();
+
+		long start = System.currentTimeMillis();
+		cancellation.bind();
+		try {
+			ProcessUtils.execGetOutput(new String[] { "sleep", "30" });
+		} catch (ProcessException e) {
+			// expected
+		} catch (RuntimeException e) {
+			// interrupted while waiting for the process
+		} finally {
+			cancellation.unbind();
+			Thread.interrupted();
+		}
+
+		assertThat(System.currentTimeMillis() - start, lessThan(10000L));
+	}
+}
@@ -0,0 +1,71 @@
+package com.sixsq.slipstream.util;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.sixsq.slipstream.exceptions.ProcessException;
+
+public class ProcessUtilsTest {
+
+	@Test(timeout = 20000)
+	public void drainsStderrAndStdoutConcurrently() throws Exception {
+		String[] command = { "sh", "-c",
+				"head -c 500000 /dev/zero | tr '\\000' x >&2; echo done" };
+
+		String[] output = ProcessUtils.execAsync(command, false, 10, false)
+				.get();
+
+		assertThat(output[0], is("done\n"));
+		assertThat(output[1].length() > 0, is(true));
+	}
+
+	@Test(timeout = 20000)
+	public void timeoutKillsProcess() throws Exception {
+		Future<String[]> result = ProcessUtils.execAsync(new String[] {
+				"sleep", "60" }, true, 1, false);
+		try {
+			result.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(ProcessException.class));
+		}
+	}
+
+	@Test(expected = ProcessException.class)
+	public void nonZeroExitCodeFails() throws Exception {
+		ProcessUtils.execGetOutput(new String[] { "sh", "-c", "exit 3" });
+	}
+
+	@Test
+	public void returnsOutput() throws Exception {
+		assertThat(ProcessUtils.execGetOutput(new String[] { "echo", "hello" }),
+				is("hello\n"));
+	}
+}
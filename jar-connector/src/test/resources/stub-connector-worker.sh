@@ -0,0 +1,46 @@
+#!/bin/sh
+#
+# Stub connector worker, talking the WorkerPool line protocol. The tool is
+# run as a command, with the credentials in the environment as
+# CREDENTIAL_<name> (leading dashes dropped), which is enough to test the
+# pool.
+#
+decode() {
+  printf '%s' "$1" | base64 -d
+}
+
+while IFS= read -r line; do
+  case "$line" in
+    PING)
+      echo PONG
+      ;;
+    RUN\ *)
+      set -- ${line#RUN }
+      tool=$1
+      credentials=$2
+      arguments=$3
+      set --
+      while [ "$credentials" -gt 0 ]; do
+        read -r name value
+        name=$(printf '%s' "$name" | sed 's/^-*//; s/-/_/g')
+        set -- "$@" "CREDENTIAL_$name=$(decode "$value")"
+        credentials=$((credentials - 1))
+      done
+      set -- "$@" "$tool"
+      while [ "$arguments" -gt 0 ]; do
+        IFS= read -r arg
+        set -- "$@" "$(decode "$arg")"
+        arguments=$((arguments - 1))
+      done
+      out_file=$(mktemp)
+      err_file=$(mktemp)
+      env "$@" > "$out_file" 2> "$err_file"
+      code=$?
+      echo "RESULT $code $(base64 < "$out_file" | tr -d '\n') $(base64 < "$err_file" | tr -d '\n')"
+      rm -f "$out_file" "$err_file"
+      ;;
+    *)
+      echo "ERROR unknown request"
+      ;;
+  esac
+done
@@ -0,0 +1,36 @@
+package com.sixsq.slipstream.exceptions;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+
+/**
+ * Raised when a call to a cloud is refused because the worker pool of its
+ * connector is saturated: the cloud itself wasn't called, the call can be
+ * retried later.
+ */
+@SuppressWarnings("serial")
+public class ConnectorBusyException extends SlipStreamException {
+
+	public ConnectorBusyException(final String error) {
+		super(error);
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.sixsq.slipstream.persistence;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Query;
+import javax.persistence.Table;
+
+/**
+ * Maps a cloud instance, identified by its cloud and instance id, to the node
+ * of the run that owns it. The primary key is the (cloud, instance id) pair,
+ * so lookups are indexed instead of scanning the runtime parameters. The run
+ * uuid is indexed too, for the entries of a run to be removed once it's done.
+ *
+ * Unit test:
+ *
+ * @see InstanceIdIndexTest
+ *
+ */
+@Entity
+@NamedQueries({
+		@NamedQuery(name = "instanceIdIndexByInstanceIds", query = "SELECT i.instanceId, i.runUuid FROM InstanceIdIndex i WHERE i.id IN (:ids) AND i.user_ = :user"),
+		@NamedQuery(name = "removeInstanceIdIndexByRun", query = "DELETE InstanceIdIndex WHERE runUuid = :runuuid"),
+		@NamedQuery(name = "removeInstanceIdIndexByRuns", query = "DELETE InstanceIdIndex WHERE runUuid IN (:runuuids)") })
+@Table(indexes = { @Index(name = "instanceIdIndexRunUuid", columnList = "runUuid") })
+public class InstanceIdIndex {
+
+	private static final String ID_SEPARATOR = "/";
+
+	@Id
+	private String id;
+
+	private String cloud;
+
+	private String instanceId;
+
+	private String runUuid;
+
+	private String nodeName;
+
+	private String user_;
+
+	@SuppressWarnings("unused")
+	private InstanceIdIndex() {
+	}
+
+	public InstanceIdIndex(String cloud, String instanceId, String runUuid,
+			String nodeName, String user) {
+		this.id = constructId(cloud, instanceId);
+		this.cloud = cloud;
+		this.instanceId = instanceId;
+		this.runUuid = runUuid;
+		this.nodeName = nodeName;
+		this.user_ = user;
+	}
+
+	private static String constructId(String cloud, String instanceId) {
+		return cloud + ID_SEPARATOR + instanceId;
+	}
+
+	public static InstanceIdIndex load(String cloud, String instanceId) {
+		EntityManager em = PersistenceUtil.createEntityManager();
+		InstanceIdIndex index = em.find(InstanceIdIndex.class,
+				constructId(cloud, instanceId));
+		em.close();
+		return index;
+	}
+
+	/**
+	 * @return map of instance id to run uuid, for the instance ids of the user
+	 *         found in the index
+	 */
+	public static Map<String, String> loadRunUuids(String user, String cloud,
+			Collection<String> instanceIds) {
+		Map<String, String> uuids = new HashMap<String, String>();
+		if (instanceIds.isEmpty()) {
+			return uuids;
+		}
+		// look up by primary key
+		List<String> ids = new ArrayList<String>(instanceIds.size());
+		for (String instanceId : instanceIds) {
+			ids.add(constructId(cloud, instanceId));
+		}
+		EntityManager em = PersistenceUtil.createEntityManager();
+		Query q = em.createNamedQuery("instanceIdIndexByInstanceIds");
+		q.setParameter("ids", ids);
+		q.setParameter("user", user);
+		List<?> res = q.getResultList();
+		em.close();
+
+		for (Object object : res) {
+			uuids.put((String) ((Object[]) object)[0],
+					(String) ((Object[]) object)[1]);
+		}
+		return uuids;
+	}
+
+	/**
+	 * Adds or replaces the entry for the given cloud instance, as part of the
+	 * transaction of the given entity manager.
+	 */
+	public static void store(String cloud, String instanceId, String runUuid,
+			String nodeName, String user, EntityManager em) {
+		if (!Parameter.hasValueSet(instanceId) || cloud == null) {
+			return;
+		}
+		em.merge(new InstanceIdIndex(cloud, instanceId, runUuid, nodeName,
+				user));
+	}
+
+	public static void store(String cloud, String instanceId, String runUuid,
+			String nodeName, String user) {
+		EntityManager em = PersistenceUtil.createEntityManager();
+		EntityTransaction transaction = em.getTransaction();
+		transaction.begin();
+		store(cloud, instanceId, runUuid, nodeName, user, em);
+		transaction.commit();
+		em.close();
+	}
+
+	/**
+	 * Removes all the entries of the run. To be called once the run has
+	 * reached a terminal state.
+	 *
+	 * @return number of entries removed
+	 */
+	public static int removeByRun(String runUuid) {
+		EntityManager em = PersistenceUtil.createEntityManager();
+		EntityTransaction transaction = em.getTransaction();
+		transaction.begin();
+		Query q = em.createNamedQuery("removeInstanceIdIndexByRun");
+		q.setParameter("runuuid", runUuid);
+		int removed = q.executeUpdate();
+		transaction.commit();
+		em.close();
+		return removed;
+	}
+
+	/**
+	 * Removes all the entries of the runs, in one statement.
+	 *
+	 * @return number of entries removed
+	 */
+	public static int removeByRuns(Collection<String> runUuids) {
+		if (runUuids.isEmpty()) {
+			return 0;
+		}
+		EntityManager em = PersistenceUtil.createEntityManager();
+		EntityTransaction transaction = em.getTransaction();
+		transaction.begin();
+		Query q = em.createNamedQuery("removeInstanceIdIndexByRuns");
+		q.setParameter("runuuids", runUuids);
+		int removed = q.executeUpdate();
+		transaction.commit();
+		em.close();
+		return removed;
+	}
+
+	public String getCloud() {
+		return cloud;
+	}
+
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	public String getRunUuid() {
+		return runUuid;
+	}
+
+	public String getNodeName() {
+		return nodeName;
+	}
+
+	public String getUser() {
+		return user_;
+	}
+
+}
@@ -20,19 +20,32 @@ package com.sixsq.slipstream.persistence;
  * -=================================================================-
  */
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+
+import com.mchange.v2.c3p0.C3P0Registry;
+import com.mchange.v2.c3p0.PooledDataSource;
+
 public class PersistenceUtil {
 
+	private static final String CONNECTION_POOL_PREFIX = "hibernate.c3p0.";
+
 	private static final EntityManagerFactory emf = buildEntityManagerFactory();
 
 	private static EntityManagerFactory buildEntityManagerFactory() {
 		String persistenceUnit = System.getProperty("persistence.unit","hsqldb-mem-schema");
 		
 		try {
-			return Persistence.createEntityManagerFactory(persistenceUnit);
+			return Persistence.createEntityManagerFactory(persistenceUnit,
+					getConnectionPoolOverrides());
 		} catch (Exception ex) {
 			System.err.println("Initial EntityManagerFactory creation failed:"
 					+ ex.getMessage());
@@ -40,6 +53,20 @@ public class PersistenceUtil {
 		}
 	}
 
+	/**
+	 * Returns the connection pool settings (hibernate.c3p0.*) set as system
+	 * properties, overriding those of persistence.xml.
+	 */
+	private static Map<String, String> getConnectionPoolOverrides() {
+		Map<String, String> overrides = new HashMap<String, String>();
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(CONNECTION_POOL_PREFIX)) {
+				overrides.put(name, System.getProperty(name));
+			}
+		}
+		return overrides;
+	}
+
 	public static EntityManagerFactory getEntityManagerFactory() {
 		return emf;
 	}
@@ -48,4 +75,23 @@ public class PersistenceUtil {
 		return getEntityManagerFactory().createEntityManager();
 	}
 
+	/**
+	 * Returns the statistics of the persistence unit since startup: hits,
+	 * misses and puts of the second-level and query caches, statements
+	 * prepared (i.e. database round trips), entities loaded...
+	 */
+	public static Statistics getStatistics() {
+		return ((HibernateEntityManagerFactory) getEntityManagerFactory())
+				.getSessionFactory().getStatistics();
+	}
+
+	/**
+	 * Returns the connection pools of the persistence unit, to monitor their
+	 * busy, idle and awaited connections.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Set<PooledDataSource> getConnectionPools() {
+		return C3P0Registry.getPooledDataSources();
+	}
+
 }
@@ -25,6 +25,7 @@ import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -68,16 +69,24 @@ import com.sixsq.slipstream.statemachine.States;
 @Entity
 @NamedQueries({
 		@NamedQuery(name = "allActiveRuns", query = "SELECT r FROM Run r WHERE r.state NOT IN (:completed) ORDER BY r.startTime DESC"),
+		@NamedQuery(name = "usersWithActiveRuns", query = "SELECT DISTINCT r.user_ FROM Run r WHERE r.state NOT IN (:completed)"),
 		@NamedQuery(name = "activeRunsByUser", query = "SELECT r FROM Run r WHERE r.state NOT IN (:completed) AND r.user_ = :user ORDER BY r.startTime DESC"),
 		@NamedQuery(name = "allRuns", query = "SELECT r FROM Run r ORDER BY r.startTime DESC"),
 		@NamedQuery(name = "runsByUser", query = "SELECT r FROM Run r WHERE r.user_ = :user ORDER BY r.startTime DESC"),
 		@NamedQuery(name = "runWithRuntimeParameters", query = "SELECT r FROM Run r JOIN FETCH r.runtimeParameters p WHERE r.uuid = :uuid"),
 		@NamedQuery(name = "runsByRefModule", query = "SELECT r FROM Run r WHERE r.user_ = :user AND r.moduleResourceUri = :referenceModule ORDER BY r.startTime DESC"),
 		@NamedQuery(name = "oldInStatesRuns", query = "SELECT r FROM Run r WHERE r.startTime < :before AND r.state IN (:states)"),
-		@NamedQuery(name = "runByInstanceId", query = "SELECT r FROM Run r JOIN FETCH r.runtimeParameters p WHERE r.user_ = :user AND p.key_ LIKE '%:instanceid' AND p.value = :instanceid ORDER BY r.startTime DESC") })
+		@NamedQuery(name = "oldInStatesRunStates", query = "SELECT r.resourceUri, r.uuid, r.state FROM Run r WHERE r.startTime < :before AND r.state IN (:states)"),
+		@NamedQuery(name = "setRuntimeParameterUris", query = "SELECT p.resourceUri FROM RuntimeParameter p WHERE p.resourceUri IN (:uris) AND p.isSet = true"),
+		@NamedQuery(name = "updateRunsState", query = "UPDATE Run r SET r.state = :state WHERE r.resourceUri IN (:runs)"),
+		@NamedQuery(name = "updateRunsEnd", query = "UPDATE Run r SET r.endTime = :end WHERE r.resourceUri IN (:runs) AND r.endTime IS NULL"),
+		@NamedQuery(name = "updateRuntimeParametersValue", query = "UPDATE RuntimeParameter p SET p.value = :value, p.isSet = true WHERE p.resourceUri IN (:uris)"),
+		@NamedQuery(name = "runByInstanceId", query = "SELECT r FROM Run r JOIN FETCH r.runtimeParameters p WHERE r.user_ = :user AND p.key_ LIKE '%:instanceid' AND p.value = :instanceid ORDER BY r.startTime DESC"),
+		@NamedQuery(name = "runUuidsByInstanceIds", query = "SELECT p.value, r.uuid FROM RuntimeParameter p JOIN p.container r WHERE r.user_ = :user AND p.key_ LIKE '%:instanceid' AND p.value IN (:instanceids) ORDER BY r.startTime DESC") })
 public class Run extends Parameterized<Run, RunParameter> {
 
 	private static final int MAX_NO_OF_ENTRIES = 20;
+	private static final int PURGE_PAGE_SIZE = 500;
 	public static final String ORCHESTRATOR_CLOUD_SERVICE_SEPARATOR = "-";
 	public static final String NODE_NAME_PARAMETER_SEPARATOR = "--";
 	// Orchestrator
@@ -193,8 +202,21 @@ public class Run extends Parameterized<Run, RunParameter> {
 
 	public static RunView loadViewByInstanceId(Parameterized<User, UserParameter> user, String instanceId,
 			String cloud) throws ConfigurationException, ValidationException {
-		// TODO: there is a chance that if two clouds have overlaping
-		// instanceid,
+		InstanceIdIndex index = InstanceIdIndex.load(cloud, instanceId);
+		if (index != null) {
+			if (!user.getName().equals(index.getUser())) {
+				return null;
+			}
+			try {
+				return convertRunToRunView(loadRunWithRuntimeParameters(index
+						.getRunUuid()));
+			} catch (NoResultException ex) {
+				return null;
+			}
+		}
+
+		// Fallback for runs started before the instance id index existed.
+		// There is a chance that if two clouds have overlapping instance ids,
 		// this logic will pickup both
 		EntityManager em = PersistenceUtil.createEntityManager();
 		Query q = em.createNamedQuery("runByInstanceId");
@@ -213,6 +235,37 @@ public class Run extends Parameterized<Run, RunParameter> {
 		return view;
 	}
 
+	/**
+	 * Resolves, in a single query, the runs owning the given instance ids.
+	 * Only the instance id and run uuid columns are fetched, no run or
+	 * runtime parameter entity is loaded.
+	 *
+	 * @return map of instance id to run uuid. Instance ids not belonging to
+	 *         any run of the user are absent. If an instance id appears in
+	 *         several runs, the most recent one wins.
+	 */
+	public static Map<String, String> loadRunUuidsByInstanceIds(String user,
+			Collection<String> instanceIds) {
+		Map<String, String> uuids = new HashMap<String, String>();
+		if (instanceIds.isEmpty()) {
+			return uuids;
+		}
+		EntityManager em = PersistenceUtil.createEntityManager();
+		Query q = em.createNamedQuery("runUuidsByInstanceIds");
+		q.setParameter("user", user);
+		q.setParameter("instanceids", instanceIds);
+		List<?> res = q.getResultList();
+		em.close();
+
+		for (Object object : res) {
+			String instanceId = (String) ((Object[]) object)[0];
+			if (!uuids.containsKey(instanceId)) {
+				uuids.put(instanceId, (String) ((Object[]) object)[1]);
+			}
+		}
+		return uuids;
+	}
+
 	private static List<RunView> convertRunsToRunViews(List<Run> runs)
 			throws ConfigurationException, ValidationException {
 		List<RunView> views = new ArrayList<RunView>();
@@ -287,16 +340,98 @@ public class Run extends Parameterized<Run, RunParameter> {
  		return runs;
  	}
 
+	/**
+	 * Marks as done the runs stuck in a transient state for a while. The runs
+	 * are processed in pages, with set-based updates of their state, end time
+	 * and global state parameter, until no stale run remains.
+	 * 
+	 * @return number of runs purged
+	 */
 	public static int purge() throws ConfigurationException, ValidationException {
-		List<Run> old = listOldTransient();
-		for (Run r : old) {
-			EntityManager em = PersistenceUtil.createEntityManager();
-			r = Run.load(r.resourceUri, em);
-			r.done();
-			r.store();
+		Date before = aLittleWhileAgo();
+		int total = 0;
+		int purged;
+		do {
+			purged = purgePage(before, PURGE_PAGE_SIZE);
+			total += purged;
+		} while (purged > 0);
+		return total;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int purgePage(Date before, int pageSize) {
+		EntityManager em = PersistenceUtil.createEntityManager();
+		EntityTransaction transaction = em.getTransaction();
+		transaction.begin();
+
+		Query q = em.createNamedQuery("oldInStatesRunStates");
+		q.setParameter("before", before);
+		q.setParameter("states", States.transition());
+		q.setMaxResults(pageSize);
+		List<Object[]> rows = q.getResultList();
+		if (rows.isEmpty()) {
+			transaction.commit();
 			em.close();
+			return 0;
 		}
-		return old.size();
+
+		List<String> abortUris = new ArrayList<String>();
+		for (Object[] row : rows) {
+			abortUris.add(row[0] + "/" + RuntimeParameter.GLOBAL_ABORT_KEY);
+		}
+		q = em.createNamedQuery("setRuntimeParameterUris");
+		q.setParameter("uris", abortUris);
+		List<String> aborted = q.getResultList();
+
+		// same transition as done(), grouped by resulting state
+		Map<States, List<String>> runsByFinalState = new HashMap<States, List<String>>();
+		List<String> uuids = new ArrayList<String>();
+		for (Object[] row : rows) {
+			String resourceUri = (String) row[0];
+			uuids.add((String) row[1]);
+			boolean isAbort = aborted.contains(resourceUri + "/"
+					+ RuntimeParameter.GLOBAL_ABORT_KEY);
+			RunStates state = new RunStates((States) row[2], isAbort);
+			state.done();
+			List<String> runs = runsByFinalState.get(state.getState());
+			if (runs == null) {
+				runs = new ArrayList<String>();
+				runsByFinalState.put(state.getState(), runs);
+			}
+			runs.add(resourceUri);
+		}
+
+		Date end = new Date();
+		int purged = 0;
+		for (Map.Entry<States, List<String>> entry : runsByFinalState
+				.entrySet()) {
+			List<String> runs = entry.getValue();
+			q = em.createNamedQuery("updateRunsState");
+			q.setParameter("state", entry.getKey());
+			q.setParameter("runs", runs);
+			purged += q.executeUpdate();
+
+			q = em.createNamedQuery("updateRunsEnd");
+			q.setParameter("end", end);
+			q.setParameter("runs", runs);
+			q.executeUpdate();
+
+			List<String> stateUris = new ArrayList<String>();
+			for (String run : runs) {
+				stateUris.add(run + "/" + RuntimeParameter.GLOBAL_STATE_KEY);
+			}
+			q = em.createNamedQuery("updateRuntimeParametersValue");
+			q.setParameter("value", entry.getKey().toString());
+			q.setParameter("uris", stateUris);
+			q.executeUpdate();
+		}
+
+		transaction.commit();
+		em.close();
+
+		InstanceIdIndex.removeByRuns(uuids);
+
+		return purged;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -365,6 +500,19 @@ public class Run extends Parameterized<Run, RunParameter> {
 		return runs;
 	}
 
+	/**
+	 * Returns the names of the users having at least one active run.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<String> listUsersWithActiveRuns() {
+		EntityManager em = PersistenceUtil.createEntityManager();
+		Query q = em.createNamedQuery("usersWithActiveRuns");
+		q.setParameter("completed", States.inactive());
+		List<String> users = q.getResultList();
+		em.close();
+		return users;
+	}
+
 	private static Query createNamedQuery(EntityManager em, String query) {
 		Query q = em.createNamedQuery(query);
 		q.setMaxResults(MAX_NO_OF_ENTRIES);
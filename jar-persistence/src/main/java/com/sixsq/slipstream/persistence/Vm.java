@@ -22,9 +22,12 @@ package com.sixsq.slipstream.persistence;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
@@ -45,8 +48,8 @@ import org.simpleframework.xml.Attribute;
 @Entity
 @NamedQueries({
 			@NamedQuery(name = "byUser", query = "SELECT v FROM Vm v WHERE v.user_ = :user"),
-			@NamedQuery(name = "usageByUser", query = "SELECT v.cloud, COUNT(v.runUuid) FROM Vm v WHERE v.user_ = :user AND v.state IN ('Running', 'running', 'On', 'on', 'active', 'Active') AND v.runUuid IS NOT NULL AND v.runUuid <> 'Unknown' GROUP BY v.cloud ORDER BY v.cloud"),
-			@NamedQuery(name = "removeByUser", query = "DELETE Vm WHERE user_ = :user AND cloud = :cloud") })
+			@NamedQuery(name = "byUserAndCloud", query = "SELECT v FROM Vm v WHERE v.user_ = :user AND v.cloud = :cloud"),
+			@NamedQuery(name = "usageByUser", query = "SELECT v.cloud, COUNT(v.runUuid) FROM Vm v WHERE v.user_ = :user AND v.state IN ('Running', 'running', 'On', 'on', 'active', 'Active') AND v.runUuid IS NOT NULL AND v.runUuid <> 'Unknown' GROUP BY v.cloud ORDER BY v.cloud") })
 public class Vm {
 
 	public final static String RESOURCE_URL_PREFIX = "vms/";
@@ -67,8 +70,13 @@ public class Vm {
 	@Attribute
 	private String state;
 
-	@Attribute
-	private Date measurement;
+	/**
+	 * When the state or run uuid of the vm was last seen changing: unchanged
+	 * vms aren't written back on each collection.
+	 */
+	@Attribute(name = "measurement")
+	@Column(name = "measurement")
+	private Date lastStateChange;
 	
 	@Attribute
 	private String runUuid;
@@ -82,7 +90,7 @@ public class Vm {
 		this.cloud = cloud;
 		this.state = state;
 		this.user_ = user;
-		measurement = new Date();
+		lastStateChange = new Date();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -95,20 +103,71 @@ public class Vm {
 		return vms;
 	}
 
-	public static int update(List<Vm> newVms, String user, String cloud) {
+	/**
+	 * Synchronises the vms of the user for the given cloud with the new list.
+	 * The current rows are loaded once, then only new instances are inserted,
+	 * instances with a changed state or run uuid are updated and vanished
+	 * instances are deleted, all in a single transaction.
+	 *
+	 * @return the number of rows inserted, updated and deleted
+	 */
+	@SuppressWarnings("unchecked")
+	public static UpdateResult update(List<Vm> newVms, String user, String cloud) {
+		UpdateResult result = new UpdateResult();
+
 		EntityManager em = PersistenceUtil.createEntityManager();
 		EntityTransaction transaction = em.getTransaction();
 		transaction.begin();
-		Query q = em.createNamedQuery("removeByUser");
+
+		Query q = em.createNamedQuery("byUserAndCloud");
 		q.setParameter("user", user);
 		q.setParameter("cloud", cloud);
-		int removed = q.executeUpdate();
-		for(Vm v : newVms) {
-			em.persist(v);
+		Map<String, Vm> current = toMap(q.getResultList());
+
+		Set<String> seen = new HashSet<String>();
+		for (Vm v : newVms) {
+			if (!seen.add(v.getInstanceId())) {
+				continue;
+			}
+			Vm existing = current.get(v.getInstanceId());
+			if (existing == null) {
+				em.persist(v);
+				result.inserted++;
+			} else if (existing.merge(v)) {
+				result.updated++;
+			}
 		}
+
+		for (Vm v : current.values()) {
+			if (!seen.contains(v.getInstanceId())) {
+				em.remove(v);
+				result.deleted++;
+			}
+		}
+
 		transaction.commit();
 		em.close();
-		return removed;
+		return result;
+	}
+
+	/**
+	 * Copies the state and run uuid of the other vm, and its time of
+	 * measurement as the last state change, if they differ.
+	 *
+	 * @return true if this vm was changed
+	 */
+	private boolean merge(Vm other) {
+		if (equals(state, other.state) && equals(runUuid, other.runUuid)) {
+			return false;
+		}
+		state = other.state;
+		runUuid = other.runUuid;
+		lastStateChange = other.lastStateChange;
+		return true;
+	}
+
+	private static boolean equals(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
 	}
 
 	public static Map<String, Integer> usage(String user) {
@@ -144,8 +203,8 @@ public class Vm {
 		return state;
 	}
 
-	public Date getMeasurement() {
-		return measurement;
+	public Date getLastStateChange() {
+		return lastStateChange;
 	}
 
 	public String getRunUuid() {
@@ -164,4 +223,33 @@ public class Vm {
 		return map;
 	}
 
+	public static class UpdateResult {
+
+		private int inserted = 0;
+		private int updated = 0;
+		private int deleted = 0;
+
+		public int getInserted() {
+			return inserted;
+		}
+
+		public int getUpdated() {
+			return updated;
+		}
+
+		public int getDeleted() {
+			return deleted;
+		}
+
+		public int getChanged() {
+			return inserted + updated + deleted;
+		}
+
+		@Override
+		public String toString() {
+			return inserted + " inserted, " + updated + " updated, " + deleted
+					+ " deleted";
+		}
+	}
+
 }
@@ -0,0 +1,79 @@
+package com.sixsq.slipstream.persistence;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class InstanceIdIndexTest {
+
+	@Test
+	public void storeLoadAndRemove() {
+
+		InstanceIdIndex.store("cloud1", "instance1", "run1", "machine", "user");
+		InstanceIdIndex.store("cloud2", "instance1", "run2", "apache.1", "user");
+
+		InstanceIdIndex index = InstanceIdIndex.load("cloud1", "instance1");
+		assertThat(index.getRunUuid(), is("run1"));
+		assertThat(index.getNodeName(), is("machine"));
+		assertThat(index.getUser(), is("user"));
+
+		// same instance id on another cloud doesn't overlap
+		index = InstanceIdIndex.load("cloud2", "instance1");
+		assertThat(index.getRunUuid(), is("run2"));
+
+		assertThat(InstanceIdIndex.removeByRun("run1"), is(1));
+		assertNull(InstanceIdIndex.load("cloud1", "instance1"));
+
+		InstanceIdIndex.removeByRun("run2");
+	}
+
+	@Test
+	public void loadRunUuids() {
+
+		InstanceIdIndex.store("cloud", "i1", "runA", "machine", "owner");
+		InstanceIdIndex.store("cloud", "i2", "runB", "machine", "owner");
+		InstanceIdIndex.store("cloud", "i3", "runC", "machine", "other");
+
+		List<String> instanceIds = new ArrayList<String>();
+		instanceIds.add("i1");
+		instanceIds.add("i2");
+		instanceIds.add("i3");
+		instanceIds.add("unknown");
+
+		Map<String, String> uuids = InstanceIdIndex.loadRunUuids("owner",
+				"cloud", instanceIds);
+		assertThat(uuids.size(), is(2));
+		assertThat(uuids.get("i1"), is("runA"));
+		assertThat(uuids.get("i2"), is("runB"));
+
+		InstanceIdIndex.removeByRun("runA");
+		InstanceIdIndex.removeByRun("runB");
+		InstanceIdIndex.removeByRun("runC");
+	}
+}
@@ -20,8 +20,19 @@ package com.sixsq.slipstream.persistence;
  * -=================================================================-
  */
 
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.SQLException;
+
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 
+import com.mchange.v2.c3p0.PooledDataSource;
+import com.sixsq.slipstream.exceptions.ValidationException;
+import com.sixsq.slipstream.user.UserView;
+
 
 public class PersistenceTest {
 
@@ -29,5 +40,74 @@ public class PersistenceTest {
 	public void removeDoesntExistsIsSilent() {
 		User.remove("doesntexists", User.class);
 	}
-	
+
+	@Test
+	public void usersAreLoadedFromCache() throws ValidationException {
+		User user = new User("usersAreLoadedFromCache");
+		user.setParameter(new UserParameter("cached", "value", ""));
+		user.store();
+		User.loadByName(user.getName());
+
+		Statistics statistics = PersistenceUtil.getStatistics();
+		long hits = statistics.getSecondLevelCacheHitCount();
+		long statements = statistics.getPrepareStatementCount();
+
+		user = User.loadByName(user.getName());
+
+		assertThat(user.getParameter("cached").getValue(), is("value"));
+		assertThat(statistics.getSecondLevelCacheHitCount(),
+				is(greaterThan(hits)));
+		assertThat(statistics.getPrepareStatementCount(), is(statements));
+
+		user.remove();
+	}
+
+	@Test
+	public void storeUpdatesCachedUser() throws ValidationException {
+		User user = new User("storeUpdatesCachedUser");
+		user.setFirstName("before");
+		user.store();
+		User.loadByName(user.getName());
+
+		user.setFirstName("after");
+		user.store();
+
+		assertThat(User.loadByName(user.getName()).getFirstName(),
+				is("after"));
+
+		user.remove();
+	}
+
+	@Test
+	public void userViewListIsCached() throws ValidationException {
+		User user = new User("userViewListIsCached");
+		user.store();
+		User.viewList();
+
+		long hits = PersistenceUtil.getStatistics().getQueryCacheHitCount();
+		User.viewList();
+
+		assertThat(PersistenceUtil.getStatistics().getQueryCacheHitCount(),
+				is(hits + 1));
+
+		user.remove();
+		for (UserView view : User.viewList()) {
+			assertThat(view.name.equals(user.getName()), is(false));
+		}
+	}
+
+	@Test
+	public void connectionsAreReturnedToThePool() throws ValidationException,
+			SQLException {
+		User user = new User("connectionsAreReturnedToThePool");
+		user.store();
+		user.remove();
+
+		assertThat(PersistenceUtil.getConnectionPools().size(), is(1));
+		PooledDataSource pool = PersistenceUtil.getConnectionPools()
+				.iterator().next();
+		assertThat(pool.getNumBusyConnectionsDefaultUser(), is(0));
+		assertThat(pool.getNumConnectionsDefaultUser(), is(greaterThan(0)));
+	}
+
 }
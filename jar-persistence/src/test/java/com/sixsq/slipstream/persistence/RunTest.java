@@ -21,6 +21,7 @@ package com.sixsq.slipstream.persistence;
  */
 
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -89,4 +90,50 @@ public class RunTest {
 		done.remove();
 		aborting.remove();
 	}
+
+	@Test
+	public void purgeMarksOldTransientRunsDone() throws ValidationException,
+			NotFoundException, AbortException {
+
+		Module image = new ImageModule();
+
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.HOUR, -2);
+		Date twoHourBack = calendar.getTime();
+
+		Run running = new Run(image, RunType.Run, "test", new User("user"));
+		running.setStart(twoHourBack);
+		running.setState(States.Running);
+		running.assignRuntimeParameter(RuntimeParameter.GLOBAL_STATE_KEY,
+				"Running", "");
+		running.assignRuntimeParameter(RuntimeParameter.GLOBAL_ABORT_KEY, "",
+				"");
+		running.store();
+
+		Run aborting = new Run(image, RunType.Run, "test", new User("user"));
+		aborting.setStart(twoHourBack);
+		aborting.setState(States.Aborting);
+		aborting.assignRuntimeParameter(RuntimeParameter.GLOBAL_STATE_KEY,
+				"Aborting", "");
+		aborting.assignRuntimeParameter(RuntimeParameter.GLOBAL_ABORT_KEY,
+				"failed", "");
+		aborting.store();
+
+		assertThat(Run.purge() >= 2, is(true));
+		assertThat(Run.listOldTransient().size(), is(0));
+
+		running = Run.loadRunWithRuntimeParameters(running.getUuid());
+		assertThat(running.getState(), is(States.Cancelled));
+		assertThat(running.getRuntimeParameterValueIgnoreAbort(
+				RuntimeParameter.GLOBAL_STATE_KEY), is("Cancelled"));
+		assertNotNull(running.getEnd());
+
+		aborting = Run.loadRunWithRuntimeParameters(aborting.getUuid());
+		assertThat(aborting.getState(), is(States.Aborted));
+		assertThat(aborting.getRuntimeParameterValueIgnoreAbort(
+				RuntimeParameter.GLOBAL_STATE_KEY), is("Aborted"));
+
+		running.remove();
+		aborting.remove();
+	}
 }
@@ -65,6 +65,44 @@ public class VmTest {
 		assertThat(vms.get(1).getInstanceId(), is("instance3"));
 	}
 
+	@Test
+	public void updateOnlyWritesDifferences() {
+
+		String user = "diffUser";
+		String cloud = "diffCloud";
+
+		List<Vm> vms = new ArrayList<Vm>();
+		vms.add(new Vm("instance1", cloud, "running", user));
+		vms.add(new Vm("instance2", cloud, "running", user));
+		Vm.UpdateResult result = Vm.update(vms, user, cloud);
+		assertThat(result.getInserted(), is(2));
+		assertThat(result.getUpdated(), is(0));
+		assertThat(result.getDeleted(), is(0));
+
+		// Same content: nothing to write
+		vms = new ArrayList<Vm>();
+		vms.add(new Vm("instance1", cloud, "running", user));
+		vms.add(new Vm("instance2", cloud, "running", user));
+		result = Vm.update(vms, user, cloud);
+		assertThat(result.getInserted(), is(0));
+		assertThat(result.getUpdated(), is(0));
+		assertThat(result.getDeleted(), is(0));
+
+		// instance1 changed, instance2 vanished, instance3 appeared
+		vms = new ArrayList<Vm>();
+		vms.add(new Vm("instance1", cloud, "terminated", user));
+		vms.add(new Vm("instance3", cloud, "running", user));
+		result = Vm.update(vms, user, cloud);
+		assertThat(result.getInserted(), is(1));
+		assertThat(result.getUpdated(), is(1));
+		assertThat(result.getDeleted(), is(1));
+
+		Map<String, Vm> stored = Vm.toMap(Vm.list(user));
+		assertThat(stored.size(), is(2));
+		assertThat(stored.get("instance1").getState(), is("terminated"));
+		assertThat(stored.containsKey("instance3"), is(true));
+	}
+
 	@Test
 	public void usage() {
 		Vm vm;
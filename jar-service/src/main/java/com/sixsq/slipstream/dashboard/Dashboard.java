@@ -28,6 +28,7 @@ import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Root;
 
+import com.sixsq.slipstream.connector.CircuitBreaker;
 import com.sixsq.slipstream.connector.ConnectorFactory;
 import com.sixsq.slipstream.exceptions.SlipStreamException;
 import com.sixsq.slipstream.persistence.User;
@@ -45,6 +46,8 @@ public class Dashboard extends Runs {
 		private int quota;
 		@Attribute
 		private int currentUsage;
+		@Attribute(required = false)
+		private String circuit;
 
 		public UsageElement() {
         }
@@ -53,6 +56,7 @@ public class Dashboard extends Runs {
 			this.cloud = cloud;
 			this.quota = quota;
 			this.currentUsage = currentUsage;
+			this.circuit = CircuitBreaker.getState(cloud).toString().toLowerCase();
 		}
 
         public String getCloud() {
@@ -66,6 +70,13 @@ public class Dashboard extends Runs {
         public int getCurrentUsage() {
             return currentUsage;
         }
+
+        /**
+         * @return state of the cloud's circuit breaker: closed, open or half_open
+         */
+        public String getCircuit() {
+            return circuit;
+        }
     }
 
 	@ElementList
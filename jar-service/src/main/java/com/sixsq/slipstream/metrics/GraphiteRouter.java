@@ -52,6 +52,10 @@ public class GraphiteRouter extends Router {
 		route.setMatchingQuery(true);
 		route.getTemplate().getVariables()
 				.put("query", new Variable(Variable.TYPE_URI_QUERY));
+
+		// server metrics, see MetricsResource
+		attach("", MetricsResource.class);
+		attach("/", MetricsResource.class);
 	}
 
 }
@@ -0,0 +1,113 @@
+package com.sixsq.slipstream.metrics;
+
+/*
+ * +=================================================================+
+ * SlipStream Server (WAR)
+ * =====
+ * Copyright (C) 2013 SixSq Sarl (sixsq.com)
+ * =====
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -=================================================================-
+ */
+
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import com.sixsq.slipstream.persistence.PersistenceUtil;
+import com.sixsq.slipstream.resource.BaseResource;
+
+/**
+ * Read-only view of the server metrics (launcher, collector, garbage
+ * collector, metrics publisher, database caches and connection pool), in the
+ * Prometheus text format. Restricted to privileged users.
+ */
+public class MetricsResource extends BaseResource {
+
+	private static Logger logger = Logger.getLogger(MetricsResource.class
+			.getName());
+
+	@Get("txt|html")
+	public Representation toText() {
+
+		checkIsSuper();
+
+		updateDatabaseCacheMetrics();
+		updateConnectionPoolMetrics();
+
+		return new StringRepresentation(Metrics.toText(),
+				MediaType.TEXT_PLAIN);
+	}
+
+	/**
+	 * Copies the hits and misses of the second-level and query caches, and
+	 * the database statements, from the Hibernate statistics.
+	 */
+	private static void updateDatabaseCacheMetrics() {
+		Statistics statistics = PersistenceUtil.getStatistics();
+		for (String region : statistics.getSecondLevelCacheRegionNames()) {
+			SecondLevelCacheStatistics cache = statistics
+					.getSecondLevelCacheStatistics(region);
+			String labels = "{region=\"" + region + "\"}";
+			Metrics.setGauge("db_cache_hits" + labels, cache.getHitCount());
+			Metrics.setGauge("db_cache_misses" + labels, cache.getMissCount());
+			Metrics.setGauge("db_cache_puts" + labels, cache.getPutCount());
+			Metrics.setGauge("db_cache_entries" + labels,
+					cache.getElementCountInMemory());
+		}
+		Metrics.setGauge("db_query_cache_hits",
+				statistics.getQueryCacheHitCount());
+		Metrics.setGauge("db_query_cache_misses",
+				statistics.getQueryCacheMissCount());
+		Metrics.setGauge("db_statements_prepared",
+				statistics.getPrepareStatementCount());
+		Metrics.setGauge("db_entities_loaded",
+				statistics.getEntityLoadCount());
+	}
+
+	private static void updateConnectionPoolMetrics() {
+		long busy = 0;
+		long idle = 0;
+		long waiting = 0;
+		long failed = 0;
+		try {
+			for (PooledDataSource pool : PersistenceUtil.getConnectionPools()) {
+				busy += pool.getNumBusyConnectionsDefaultUser();
+				idle += pool.getNumIdleConnectionsDefaultUser();
+				waiting += pool.getNumThreadsAwaitingCheckoutDefaultUser();
+				failed += pool.getNumFailedCheckoutsDefaultUser();
+			}
+		} catch (SQLException e) {
+			logger.warning("Cannot read the connection pool statistics: "
+					+ e.getMessage());
+			return;
+		}
+		Metrics.setGauge("db_pool_connections{state=\"active\"}", busy);
+		Metrics.setGauge("db_pool_connections{state=\"idle\"}", idle);
+		Metrics.setGauge("db_pool_waiting_threads", waiting);
+		Metrics.setGauge("db_pool_failed_checkouts", failed);
+	}
+
+	@Override
+	protected String getPageRepresentation() {
+		return "metrics";
+	}
+
+}
@@ -25,6 +25,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -80,6 +81,7 @@ public class RunListResource extends BaseResource {
 
 	public static final String REFQNAME = "refqname";
 	public static final String IGNORE_ABORT_QUERY = "ignoreabort";
+	private static final int RETRY_AFTER_SECONDS = 30;
 	String refqname = null;
 
 	@Get("txt")
@@ -156,6 +158,10 @@ public class RunListResource extends BaseResource {
 		Form form = new Form(entity);
 		setReference(form);
 
+		if (!slipstream.async.Launcher.isAccepting()) {
+			throwServiceUnavailable();
+		}
+
 		Run run;
 		try {
 			Module module = loadReferenceModule();
@@ -344,10 +350,24 @@ public class RunListResource extends BaseResource {
 	}
 
 	private Run launch(Run run) throws SlipStreamException {
-		slipstream.async.Launcher.launch(run, getUser());
+		if (!slipstream.async.Launcher.launch(run, getUser())) {
+			Run.abort("Launch queue full", run.getUuid());
+			throwServiceUnavailable();
+		}
 		return run;
 	}
 
+	/**
+	 * The launch queue is full: ask the client to retry later, rather than
+	 * queuing more work than the server can launch.
+	 */
+	private void throwServiceUnavailable() {
+		getResponse().setRetryAfter(
+				new Date(System.currentTimeMillis() + RETRY_AFTER_SECONDS * 1000));
+		throw new ResourceException(Status.SERVER_ERROR_SERVICE_UNAVAILABLE,
+				"Too many runs being launched, please retry later");
+	}
+
 	private Run addCredentials(Run run) throws ConfigurationException,
 			ServerExecutionEnginePluginException, ValidationException {
 
@@ -20,7 +20,10 @@ package com.sixsq.slipstream.run;
  * -=================================================================-
  */
 
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 
@@ -35,14 +38,19 @@ import org.restlet.resource.Get;
 import org.restlet.resource.Put;
 import org.restlet.resource.ResourceException;
 
+import com.sixsq.slipstream.connector.CircuitBreaker;
 import com.sixsq.slipstream.connector.Connector;
 import com.sixsq.slipstream.connector.ConnectorFactory;
+import com.sixsq.slipstream.connector.ConnectorFuture;
+import com.sixsq.slipstream.connector.ConnectorGuard;
+import com.sixsq.slipstream.exceptions.CircuitOpenException;
 import com.sixsq.slipstream.exceptions.ConfigurationException;
 import com.sixsq.slipstream.exceptions.NotFoundException;
 import com.sixsq.slipstream.exceptions.SlipStreamClientException;
 import com.sixsq.slipstream.exceptions.SlipStreamException;
 import com.sixsq.slipstream.exceptions.ValidationException;
 import com.sixsq.slipstream.factory.RunFactory;
+import com.sixsq.slipstream.persistence.InstanceIdIndex;
 import com.sixsq.slipstream.persistence.Module;
 import com.sixsq.slipstream.persistence.ModuleCategory;
 import com.sixsq.slipstream.persistence.PersistenceUtil;
@@ -182,28 +190,24 @@ public class RunResource extends BaseResource {
 		Run run = Run.load(this.run.getResourceUri(), em);
 
 		try {
+			Map<Connector, ConnectorFuture<Void>> terminations = new LinkedHashMap<Connector, ConnectorFuture<Void>>();
 			if (run.getCategory() == ModuleCategory.Deployment) {
 				HashSet<String> cloudServicesList = RunFactory.getCloudServicesList(run);
 				for (String cloudServiceName : cloudServicesList) {
 					Connector connector = ConnectorFactory
 							.getConnector(cloudServiceName);
-					try {
-						connector.terminate(run, getUser());
-					} catch (SlipStreamException e) {
-						throw new ResourceException(
-								Status.CLIENT_ERROR_CONFLICT,
-								"Failed terminating VMs", e);
-					}
+					terminations.put(connector, ConnectorGuard.terminateAsync(
+							connector, run, getUser()));
 				}
 			} else {
 				Connector connector = ConnectorFactory.getConnector(run
 						.getCloudService());
-				try {
-					connector.terminate(run, getUser());
-				} catch (SlipStreamException e) {
-					throw new ResourceException(Status.CLIENT_ERROR_CONFLICT,
-							"Failed terminating VMs", e);
-				}
+				terminations.put(connector, ConnectorGuard.terminateAsync(
+						connector, run, getUser()));
+			}
+			for (Map.Entry<Connector, ConnectorFuture<Void>> termination : terminations
+					.entrySet()) {
+				awaitTermination(termination.getKey(), termination.getValue());
 			}
 		} catch (ConfigurationException e) {
 			throwConfigurationException(e);
@@ -216,5 +220,31 @@ public class RunResource extends BaseResource {
 		run.store();
 
 		em.close();
+
+		InstanceIdIndex.removeByRun(run.getUuid());
+	}
+
+	/**
+	 * Waits for the termination of the VMs of the run on the cloud (see
+	 * {@link ConnectorGuard}). If calls to the cloud are suspended (see
+	 * {@link CircuitBreaker}), the client is asked to retry later.
+	 */
+	private void awaitTermination(Connector connector,
+			ConnectorFuture<Void> termination) {
+		CircuitBreaker breaker = CircuitBreaker.forConnector(connector
+				.getConnectorInstanceName());
+		try {
+			ConnectorGuard.await(termination);
+		} catch (CircuitOpenException e) {
+			getResponse().setRetryAfter(
+					new Date(System.currentTimeMillis()
+							+ Math.max(1, breaker.getRetryAfterSeconds())
+							* 1000));
+			throw new ResourceException(
+					Status.SERVER_ERROR_SERVICE_UNAVAILABLE, e.getMessage());
+		} catch (SlipStreamException e) {
+			throw new ResourceException(Status.CLIENT_ERROR_CONFLICT,
+					"Failed terminating VMs", e);
+		}
 	}
 }
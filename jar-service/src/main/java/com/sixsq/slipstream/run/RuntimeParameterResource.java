@@ -43,6 +43,7 @@ import com.sixsq.slipstream.exceptions.InvalidStateException;
 import com.sixsq.slipstream.exceptions.NotFoundException;
 import com.sixsq.slipstream.exceptions.SlipStreamClientException;
 import com.sixsq.slipstream.exceptions.ValidationException;
+import com.sixsq.slipstream.persistence.InstanceIdIndex;
 import com.sixsq.slipstream.persistence.PersistenceUtil;
 import com.sixsq.slipstream.persistence.Run;
 import com.sixsq.slipstream.persistence.RuntimeParameter;
@@ -187,10 +188,27 @@ public class RuntimeParameterResource extends ServerResource {
 			runtimeParameter.setValue(value);
 		}
 
+		if (RuntimeParameter.INSTANCE_ID_KEY.equals(RuntimeParameter
+				.extractParamNamePart(key))) {
+			indexInstanceId(value, em);
+		}
+
 		transaction.commit();
 		em.close();
 	}
 
+	private void indexInstanceId(String instanceId, EntityManager em) {
+		Run run = runtimeParameter.getContainer();
+		String nodeName = runtimeParameter.getNodeName();
+		RuntimeParameter cloudService = run.getRuntimeParameters().get(
+				nodeName + RuntimeParameter.NODE_PROPERTY_SEPARATOR
+						+ RuntimeParameter.CLOUD_SERVICE_NAME);
+		String cloud = (cloudService == null || !cloudService.isSet()) ? run
+				.getCloudService() : cloudService.getValue();
+		InstanceIdIndex.store(cloud, instanceId, uuid, nodeName,
+				run.getUser(), em);
+	}
+
 	private String extractValueFromEntity(Representation entity) {
 		try {
 			return entity.getText();
@@ -235,6 +253,21 @@ public class RuntimeParameterResource extends ServerResource {
 			if (retry) {
 				updateRunState(newState, false);
 			}
+			return;
+		}
+		if (States.completed().contains(newState)) {
+			removeInstanceIdIndex();
+		}
+	}
+
+	private void removeInstanceIdIndex() {
+		try {
+			InstanceIdIndex.removeByRun(uuid);
+		} catch (Exception e) {
+			// the run state is stored: a stale entry is harmless
+			Logger.getLogger("restlet").warning(
+					"error removing the instance ids of run " + uuid + ": "
+							+ e.getMessage());
 		}
 	}
 